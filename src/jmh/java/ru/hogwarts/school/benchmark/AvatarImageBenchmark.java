@@ -0,0 +1,220 @@
+package ru.hogwarts.school.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import ru.hogwarts.school.service.AvatarPreviewService;
+import ru.hogwarts.school.service.AvatarService;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Конвейер превью аватара по этапам: декодирование (целиком и с прореживанием, как в AvatarPreviewService),
+ * масштабирование до 100 пикселей (текущий Graphics2D.drawImage с билинейной интерполяцией против
+ * AffineTransformOp, getScaledInstance с усреднением и пошагового уменьшения вдвое), кодирование превью
+ * и весь путь generateDataForDataBase. Изображения генерируются при подготовке: градиенты, фигуры и шум,
+ * чтобы сжатие было похоже на фотографии. Размеры от 256x256 до 6000x4000 (24 Мп).
+ * Выделение памяти на превью - gc.alloc.rate.norm из -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class AvatarImageBenchmark {
+    private static final int PREVIEW_WIDTH = 100;
+
+    @Param({"png", "jpg", "gif"})
+    private String format;
+
+    @Param({"256x256", "1024x768", "4000x3000", "6000x4000"})
+    private String size;
+
+    private byte[] encoded;
+    private Path file;
+    private BufferedImage decoded;
+    private BufferedImage subsampled;
+    private BufferedImage preview;
+    private int previewHeight;
+    private int subsampling;
+    private AvatarService avatarService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("ru.hogwarts.school"))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        encoded = write(generate(width, height), format);
+        file = Files.createTempFile("avatar-benchmark", "." + format);
+        Files.write(file, encoded);
+
+        decoded = ImageIO.read(new ByteArrayInputStream(encoded));
+        subsampling = Math.max(1, width / (2 * PREVIEW_WIDTH));
+        subsampled = decodeSubsampled();
+        previewHeight = Math.max(1, (int) ((double) height / width * PREVIEW_WIDTH));
+        preview = scaleDrawImage();
+
+        AvatarPreviewService avatarPreviewService = new AvatarPreviewService(null, null, null, null,
+                List.of(PREVIEW_WIDTH), PREVIEW_WIDTH, 40_000_000, 1, 1, Duration.ofHours(1));
+        avatarService = new AvatarService(null, null, null, avatarPreviewService, null, null, null, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static BufferedImage generate(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(40, 60, 120), width, height, new Color(230, 190, 120)));
+        graphics.fillRect(0, 0, width, height);
+        Random random = new Random(42);
+        graphics.setStroke(new BasicStroke(Math.max(1, width / 200f)));
+        for (int i = 0; i < 60; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 160));
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            if (i % 2 == 0) {
+                graphics.fillOval(x, y, random.nextInt(width / 4 + 1), random.nextInt(height / 4 + 1));
+            } else {
+                graphics.drawLine(x, y, random.nextInt(width), random.nextInt(height));
+            }
+        }
+        graphics.dispose();
+        for (int i = 0; i < width * height / 20; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+        }
+        return image;
+    }
+
+    private static byte[] write(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException("No image writer for " + format);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public BufferedImage decodeFull() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public BufferedImage decodeSubsampled() throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Текущий способ AvatarPreviewService: прореженный растр, Graphics2D.drawImage с билинейной интерполяцией
+     */
+    @Benchmark
+    public BufferedImage scaleDrawImage() {
+        return drawImage(subsampled, PREVIEW_WIDTH, previewHeight, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+    @Benchmark
+    public BufferedImage scaleDrawImageFromFullDecode() {
+        return drawImage(decoded, PREVIEW_WIDTH, previewHeight, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+    @Benchmark
+    public BufferedImage scaleAffineTransformBicubic() {
+        AffineTransform transform = AffineTransform.getScaleInstance(
+                (double) PREVIEW_WIDTH / subsampled.getWidth(), (double) previewHeight / subsampled.getHeight());
+        return new AffineTransformOp(transform, AffineTransformOp.TYPE_BICUBIC).filter(subsampled, null);
+    }
+
+    @Benchmark
+    public BufferedImage scaleAreaAveraging() {
+        Image scaled = subsampled.getScaledInstance(PREVIEW_WIDTH, previewHeight, Image.SCALE_AREA_AVERAGING);
+        BufferedImage target = new BufferedImage(PREVIEW_WIDTH, previewHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        graphics.drawImage(scaled, 0, 0, null);
+        graphics.dispose();
+        return target;
+    }
+
+    /**
+     * Уменьшение вдвое билинейно, пока не останется не больше двух шагов до цели, без прореживания при чтении
+     */
+    @Benchmark
+    public BufferedImage scaleProgressiveFromFullDecode() {
+        BufferedImage current = decoded;
+        while (current.getWidth() / 2 >= PREVIEW_WIDTH * 2) {
+            current = drawImage(current, current.getWidth() / 2, Math.max(1, current.getHeight() / 2),
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        return drawImage(current, PREVIEW_WIDTH, previewHeight, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+    @Benchmark
+    public byte[] encodePreview() throws IOException {
+        return write(preview, format);
+    }
+
+    @Benchmark
+    public byte[] generateDataForDataBase() throws IOException {
+        return avatarService.generateDataForDataBase(file);
+    }
+
+    @Benchmark
+    public String getExtension() {
+        return avatarService.getExtension(file.getFileName().toString());
+    }
+
+    private static BufferedImage drawImage(BufferedImage source, int width, int height, Object interpolation) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        graphics.drawImage(source, 0, 0, width, height, null);
+        graphics.dispose();
+        return target;
+    }
+}
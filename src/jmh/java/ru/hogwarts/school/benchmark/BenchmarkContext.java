@@ -0,0 +1,95 @@
+package ru.hogwarts.school.benchmark;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.hogwarts.school.SchoolApplication;
+import ru.hogwarts.school.event.StudentEventBridge;
+import ru.hogwarts.school.service.FacultyNameLengths;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Приложение без веб-сервера поверх встроенной H2 в памяти, заполненное faculties факультетами и students студентами.
+ * Индексы создаются теми же, что в changelog Liquibase, кроме индекса по lower(name), которого в H2 нет.
+ * После заполнения производные данные (агрегаты, индекс возрастов) перестраиваются, как после пакетной вставки
+ */
+final class BenchmarkContext implements AutoCloseable {
+    static final String[] COLORS = {"red", "green", "yellow", "blue"};
+    private static final String[] NAMES = {"Harry", "Hermione", "Ron", "Ginny", "Luna", "Neville", "Draco", "Cedric",
+            "Cho", "Dean", "Seamus", "Fred", "George", "Percy", "Oliver", "Angelina", "Katie", "Padma", "Parvati", "Zacharias"};
+    private static final int INSERT_BATCH = 10_000;
+
+    private final ConfigurableApplicationContext context;
+
+    private BenchmarkContext(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    static BenchmarkContext start(int faculties, int students) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(SchoolApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.jpa.hibernate.ddl-auto=create",
+                        "--spring.jpa.show-sql=false",
+                        "--spring.liquibase.enabled=false",
+                        "--logging.level.root=WARN",
+                        "--logging.level.ru.hogwarts.school=WARN",
+                        "--students.avatar.dir.path=target/benchmark-avatars",
+                        "--students.aggregates.reconcile-interval=PT24H",
+                        "--students.age-index.enabled=true",
+                        "--students.entity-cache.enabled=true");
+        BenchmarkContext benchmarkContext = new BenchmarkContext(context);
+        benchmarkContext.fill(faculties, students);
+        return benchmarkContext;
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    JdbcTemplate jdbcTemplate() {
+        return bean(JdbcTemplate.class);
+    }
+
+    private void fill(int faculties, int students) {
+        JdbcTemplate jdbcTemplate = jdbcTemplate();
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>(INSERT_BATCH);
+        for (int i = 1; i <= faculties; i++) {
+            rows.add(new Object[]{NAMES[random.nextInt(NAMES.length)] + " house " + i, COLORS[i % COLORS.length]});
+            if (rows.size() == INSERT_BATCH || i == faculties) {
+                jdbcTemplate.batchUpdate("insert into faculty (name, color) values (?, ?)", rows);
+                rows.clear();
+            }
+        }
+        long firstFacultyId = faculties == 0 ? 0 : jdbcTemplate.queryForObject("select min(id) from faculty", Long.class);
+        for (int i = 1; i <= students; i++) {
+            Long facultyId = faculties == 0 ? null : firstFacultyId + random.nextInt(faculties);
+            int age = random.nextInt(20) == 0 ? 0 : 10 + random.nextInt(11);
+            rows.add(new Object[]{NAMES[random.nextInt(NAMES.length)] + " " + i, age, facultyId});
+            if (rows.size() == INSERT_BATCH || i == students) {
+                jdbcTemplate.batchUpdate("insert into student (name, age, faculty_id) values (?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+        jdbcTemplate.execute("create index student_name_index on student (name)");
+        jdbcTemplate.execute("create index student_age_id_index on student (age, id)");
+        jdbcTemplate.execute("create index student_faculty_id_age_index on student (faculty_id, age, id)");
+        jdbcTemplate.execute("create index faculty_name_color_index on faculty (color, name)");
+        bean(StudentEventBridge.class).publishReloadRequired();
+        bean(FacultyNameLengths.class).reset();
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,99 @@
+package ru.hogwarts.school.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.hogwarts.school.dto.FacultyName;
+import ru.hogwarts.school.dto.FacultyNameStatistics;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.service.FacultyService;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Горячие пути FacultyService на faculties факультетах и 100 тысячах студентов. Самое длинное название
+ * сравнивается в четырех вариантах: поддерживаемая статистика сервиса, последовательный и параллельный stream
+ * по названиям в памяти и сортировка по length(name) на стороне базы
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class FacultyServiceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int faculties;
+
+    private BenchmarkContext context;
+    private FacultyService facultyService;
+    private JdbcTemplate jdbcTemplate;
+    private List<FacultyName> inMemoryNames;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(faculties, 100_000);
+        facultyService = context.bean(FacultyService.class);
+        jdbcTemplate = context.jdbcTemplate();
+        inMemoryNames = context.bean(FacultyRepository.class).findAllNames();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String longestNameMaintained() {
+        return facultyService.getLongestFacultyName();
+    }
+
+    @Benchmark
+    public String longestNameSequentialStream() {
+        return inMemoryNames.stream()
+                .filter(faculty -> faculty.name() != null)
+                .max(Comparator.comparingInt(faculty -> faculty.name().length()))
+                .map(FacultyName::name)
+                .orElse(null);
+    }
+
+    @Benchmark
+    public String longestNameParallelStream() {
+        return inMemoryNames.parallelStream()
+                .filter(faculty -> faculty.name() != null)
+                .max(Comparator.comparingInt(faculty -> faculty.name().length()))
+                .map(FacultyName::name)
+                .orElse(null);
+    }
+
+    @Benchmark
+    public String longestNameDatabase() {
+        return jdbcTemplate.queryForObject(
+                "select name from faculty where name is not null order by length(name) desc, id limit 1", String.class);
+    }
+
+    @Benchmark
+    public FacultyNameStatistics nameStatistics() {
+        return facultyService.getNameStatistics();
+    }
+
+    @Benchmark
+    public Collection<Faculty> filterByColor() {
+        return facultyService.filteredFacultyByColor(BenchmarkContext.COLORS[0]);
+    }
+}
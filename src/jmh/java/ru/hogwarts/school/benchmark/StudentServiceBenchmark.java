@@ -0,0 +1,123 @@
+package ru.hogwarts.school.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.dto.StudentAgeTotals;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.StudentRepository;
+import ru.hogwarts.school.service.StudentService;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Горячие пути StudentService на students студентах. Средний возраст сравнивается в четырех вариантах:
+ * поддерживаемые агрегаты сервиса, последовательный и параллельный stream по списку студентов в памяти
+ * (так считал сервис до агрегатов) и агрегат на стороне базы. 10M требует около 4 ГБ кучи и долгой подготовки,
+ * выбирается явно: -p students=10000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class StudentServiceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int students;
+
+    private BenchmarkContext context;
+    private StudentService studentService;
+    private StudentRepository studentRepository;
+    private List<Student> inMemoryStudents;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(10, students);
+        studentService = context.bean(StudentService.class);
+        studentRepository = context.bean(StudentRepository.class);
+        TransactionTemplate readOnly = new TransactionTemplate(context.bean(PlatformTransactionManager.class));
+        readOnly.setReadOnly(true);
+        inMemoryStudents = readOnly.execute(status -> {
+            try (Stream<Student> stream = studentRepository.streamAll()) {
+                return stream.toList();
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<String> namesStartWithSymbol() {
+        return studentService.getStudentsByNameStartsWithSymbol("L");
+    }
+
+    @Benchmark
+    public double averageAgeMaintained() {
+        return studentService.getAverageAgeOfStudentsStream();
+    }
+
+    @Benchmark
+    public double averageAgeSequentialStream() {
+        return inMemoryStudents.stream()
+                .filter(student -> student.getAge() != 0)
+                .mapToInt(Student::getAge)
+                .average()
+                .orElse(0.0);
+    }
+
+    @Benchmark
+    public double averageAgeParallelStream() {
+        return inMemoryStudents.parallelStream()
+                .filter(student -> student.getAge() != 0)
+                .mapToInt(Student::getAge)
+                .average()
+                .orElse(0.0);
+    }
+
+    @Benchmark
+    public double averageAgeDatabase() {
+        StudentAgeTotals totals = studentRepository.calculateAgeTotals();
+        return totals.nonZeroAgeCount() == 0 ? 0.0 : (double) totals.ageSum() / totals.nonZeroAgeCount();
+    }
+
+    @Benchmark
+    public long countByAgeBetween() {
+        return studentService.countByAgeBetween(14, 15);
+    }
+
+    @Benchmark
+    public List<Student> filterPageByAgeIndexed() {
+        return studentService.findByAgeBetween(14, 15, 10, 100);
+    }
+
+    @Benchmark
+    public List<Student> filterPageByAgeDatabase() {
+        return studentRepository.findByAgeBetween(14, 15, PageRequest.of(9, 100, Sort.by("age", "id")));
+    }
+
+    @Benchmark
+    public Collection<Student> filterByAge() {
+        return studentService.filteredStudentByAge(17);
+    }
+}
@@ -0,0 +1,74 @@
+package ru.hogwarts.school.loadtest;
+
+import ru.hogwarts.school.loadtest.LatencyReport.EndpointSummary;
+import ru.hogwarts.school.loadtest.LatencyReport.LoadTestResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Сравнение с базовой линией по каждому эндпоинту, который есть в обоих прогонах. Регрессия - p99 выросла
+ * или пропускная способность упала больше чем на tolerance, либо доля ошибок выросла больше чем на tolerance
+ * процентных пунктов. Сравнивать имеет смысл прогоны одной модели нагрузки на одном окружении
+ */
+class BaselineComparison {
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> regressions = new ArrayList<>();
+
+    BaselineComparison(LoadTestResult baseline, LoadTestResult current, double tolerance) {
+        Map<String, EndpointSummary> previous = baseline.endpoints().stream()
+                .collect(Collectors.toMap(EndpointSummary::endpoint, Function.identity()));
+        previous.put(LatencyReport.TOTAL, baseline.total());
+        if (!baseline.description().equals(current.description())) {
+            lines.add("Warning: baseline was recorded with " + baseline.description());
+        }
+        lines.add("%-24s %14s %14s %12s".formatted("endpoint", "p99 change", "req/s change", "errors"));
+        List<EndpointSummary> rows = new ArrayList<>(current.endpoints());
+        rows.add(current.total());
+        for (EndpointSummary row : rows) {
+            EndpointSummary before = previous.get(row.endpoint());
+            if (before == null) {
+                lines.add("%-24s %14s".formatted(row.endpoint(), "new"));
+                continue;
+            }
+            double p99Change = change(before.p99Millis(), row.p99Millis());
+            double throughputChange = change(before.throughput(), row.throughput());
+            double errorChange = row.errorRate() - before.errorRate();
+            lines.add("%-24s %+13.1f%% %+13.1f%% %+11.2f%%".formatted(row.endpoint(),
+                    p99Change * 100, throughputChange * 100, errorChange * 100));
+            if (p99Change > tolerance) {
+                regressions.add("%s p99 %.2f ms -> %.2f ms".formatted(row.endpoint(), before.p99Millis(), row.p99Millis()));
+            }
+            if (throughputChange < -tolerance) {
+                regressions.add("%s throughput %.1f -> %.1f req/s".formatted(row.endpoint(), before.throughput(), row.throughput()));
+            }
+            if (errorChange > tolerance) {
+                regressions.add("%s error rate %.2f%% -> %.2f%%".formatted(row.endpoint(),
+                        before.errorRate() * 100, row.errorRate() * 100));
+            }
+        }
+    }
+
+    boolean hasRegressions() {
+        return !regressions.isEmpty();
+    }
+
+    String format() {
+        StringBuilder text = new StringBuilder();
+        lines.forEach(line -> text.append(line).append(System.lineSeparator()));
+        if (regressions.isEmpty()) {
+            text.append("No regressions against baseline").append(System.lineSeparator());
+        } else {
+            text.append("Regressions:").append(System.lineSeparator());
+            regressions.forEach(regression -> text.append("  ").append(regression).append(System.lineSeparator()));
+        }
+        return text.toString();
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) / before;
+    }
+}
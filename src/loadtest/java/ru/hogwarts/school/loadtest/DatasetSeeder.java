@@ -0,0 +1,113 @@
+package ru.hogwarts.school.loadtest;
+
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.hogwarts.school.event.StudentEventBridge;
+import ru.hogwarts.school.service.FacultyNameLengths;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Синтетические данные: факультеты и студенты вставляются пакетами JDBC, аватары первых студентов
+ * загружаются через /avatar/import, как их загружал бы клиент. Для H2 создаются те же индексы, что в changelog
+ */
+class DatasetSeeder {
+    static final String[] NAMES = {"Harry", "Hermione", "Ron", "Ginny", "Luna", "Neville", "Draco", "Cedric",
+            "Cho", "Dean", "Seamus", "Fred", "George", "Percy", "Oliver", "Angelina", "Katie", "Padma", "Parvati", "Zacharias"};
+    private static final String[] COLORS = {"red", "green", "yellow", "blue"};
+    private static final int INSERT_BATCH = 10_000;
+
+    private final ConfigurableApplicationContext context;
+    private final JdbcTemplate jdbcTemplate;
+    private final Random random;
+
+    DatasetSeeder(ConfigurableApplicationContext context, long seed) {
+        this.context = context;
+        this.jdbcTemplate = context.getBean(JdbcTemplate.class);
+        this.random = new Random(seed);
+    }
+
+    Dataset seed(LoadTestOptions options, URI baseUri, HttpClient client) throws IOException, InterruptedException {
+        List<Object[]> rows = new ArrayList<>(INSERT_BATCH);
+        for (int i = 1; i <= options.faculties(); i++) {
+            rows.add(new Object[]{NAMES[random.nextInt(NAMES.length)] + " house " + i, COLORS[i % COLORS.length]});
+            flush(rows, "insert into faculty (name, color) values (?, ?)", i == options.faculties());
+        }
+        List<Long> facultyIds = jdbcTemplate.queryForList("select id from faculty order by id", Long.class);
+        for (int i = 1; i <= options.students(); i++) {
+            Long facultyId = facultyIds.isEmpty() ? null : facultyIds.get(random.nextInt(facultyIds.size()));
+            rows.add(new Object[]{NAMES[random.nextInt(NAMES.length)] + " " + i, 11 + random.nextInt(8), facultyId});
+            flush(rows, "insert into student (name, age, faculty_id) values (?, ?, ?)", i == options.students());
+        }
+        if ("h2".equals(options.database())) {
+            jdbcTemplate.execute("create index student_name_index on student (name)");
+            jdbcTemplate.execute("create index student_age_id_index on student (age, id)");
+            jdbcTemplate.execute("create index student_faculty_id_age_index on student (faculty_id, age, id)");
+        }
+        context.getBean(StudentEventBridge.class).publishReloadRequired();
+        context.getBean(FacultyNameLengths.class).reset();
+
+        List<Long> studentIds = jdbcTemplate.queryForList("select id from student order by id", Long.class);
+        List<Long> avatarStudentIds = studentIds.subList(0, Math.min(options.avatars(), studentIds.size()));
+        if (!avatarStudentIds.isEmpty()) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(baseUri.resolve("/avatar/import"))
+                            .header("Content-Type", "application/zip")
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(avatarsZip(avatarStudentIds)))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("Avatar import failed with status " + response.statusCode() + ": " + response.body());
+            }
+        }
+        return new Dataset(List.copyOf(studentIds), List.copyOf(facultyIds), List.copyOf(avatarStudentIds));
+    }
+
+    private void flush(List<Object[]> rows, String sql, boolean last) {
+        if (rows.size() == INSERT_BATCH || last && !rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, rows);
+            rows.clear();
+        }
+    }
+
+    private byte[] avatarsZip(List<Long> studentIds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (long studentId : studentIds) {
+                zip.putNextEntry(new ZipEntry(studentId + ".png"));
+                zip.write(avatar());
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] avatar() throws IOException {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+        graphics.fillRect(0, 0, 640, 480);
+        graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+        graphics.fillOval(random.nextInt(320), random.nextInt(240), 320, 240);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    record Dataset(List<Long> studentIds, List<Long> facultyIds, List<Long> avatarStudentIds) {
+    }
+}
@@ -0,0 +1,115 @@
+package ru.hogwarts.school.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Задержки успешных запросов по эндпоинтам в HdrHistogram (микросекунды, три значащие цифры),
+ * отдельно - число ошибок (статус 4xx, 5xx или исключение) и отброшенных открытой моделью запросов
+ */
+class LatencyReport {
+    static final String TOTAL = "total";
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Map<String, EndpointRecorder> endpoints = new ConcurrentSkipListMap<>();
+    private final EndpointRecorder total = new EndpointRecorder();
+
+    void record(String endpoint, long latencyNanos, boolean success) {
+        recorder(endpoint).record(latencyNanos, success);
+        total.record(latencyNanos, success);
+    }
+
+    void dropped(String endpoint) {
+        recorder(endpoint).dropped.increment();
+        total.dropped.increment();
+    }
+
+    LoadTestResult result(String description, Duration measured) {
+        double seconds = measured.toNanos() / 1e9;
+        List<EndpointSummary> summaries = new ArrayList<>();
+        endpoints.forEach((name, recorder) -> summaries.add(recorder.summarize(name, seconds)));
+        return new LoadTestResult(description, Instant.now(), seconds, summaries, total.summarize(TOTAL, seconds));
+    }
+
+    private EndpointRecorder recorder(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, name -> new EndpointRecorder());
+    }
+
+    private static class EndpointRecorder {
+        private final Histogram histogram = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        private void record(long latencyNanos, boolean success) {
+            if (success) {
+                histogram.recordValue(Math.min(HIGHEST_MICROS, Math.max(1, latencyNanos / 1000)));
+            } else {
+                errors.increment();
+            }
+        }
+
+        private EndpointSummary summarize(String name, double seconds) {
+            long requests = histogram.getTotalCount();
+            return new EndpointSummary(name, requests, errors.sum(), dropped.sum(), requests / seconds,
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
+    /**
+     * @param requests   успешные запросы за время замера
+     * @param throughput успешные запросы в секунду
+     */
+    record EndpointSummary(String endpoint,
+                           long requests,
+                           long errors,
+                           long dropped,
+                           double throughput,
+                           double p50Millis,
+                           double p99Millis,
+                           double p999Millis,
+                           double maxMillis) {
+
+        double errorRate() {
+            long all = requests + errors + dropped;
+            return all == 0 ? 0 : (double) (errors + dropped) / all;
+        }
+    }
+
+    record LoadTestResult(String description,
+                          Instant finishedAt,
+                          double durationSeconds,
+                          List<EndpointSummary> endpoints,
+                          EndpointSummary total) {
+
+        String format() {
+            StringBuilder table = new StringBuilder();
+            table.append("%s, %.0f s measured%n".formatted(description, durationSeconds));
+            table.append("%-24s %10s %8s %8s %10s %10s %10s %10s %10s%n".formatted(
+                    "endpoint", "requests", "errors", "dropped", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+            List<EndpointSummary> rows = new ArrayList<>(endpoints);
+            rows.add(total);
+            for (EndpointSummary row : rows) {
+                table.append("%-24s %10d %8d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n".formatted(row.endpoint(),
+                        row.requests(), row.errors(), row.dropped(), row.throughput(),
+                        row.p50Millis(), row.p99Millis(), row.p999Millis(), row.maxMillis()));
+            }
+            return table.toString();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ru.hogwarts.school.loadtest;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Закрытая модель: фиксированное число клиентов, каждый отправляет следующий запрос после ответа на предыдущий,
+ * задержка - от отправки до ответа. Открытая модель: запросы отправляются по расписанию с заданной частотой
+ * независимо от ответов, задержка считается от запланированного времени отправки, поэтому отставание
+ * генератора и очередь на сервере не скрываются. Запросы, начатые во время прогрева, не учитываются
+ */
+class LoadGenerator {
+    private final HttpClient client;
+    private final TrafficMix mix;
+    private final LatencyReport report;
+
+    LoadGenerator(HttpClient client, TrafficMix mix, LatencyReport report) {
+        this.client = client;
+        this.mix = mix;
+        this.report = report;
+    }
+
+    void runClosed(int concurrency, Duration warmup, Duration duration) throws InterruptedException {
+        long measureStart = System.nanoTime() + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        List<Thread> clients = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Thread thread = new Thread(() -> runClient(measureStart, end), "load-client-" + (i + 1));
+            thread.start();
+            clients.add(thread);
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+    }
+
+    private void runClient(long measureStart, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            TrafficMix.Endpoint endpoint = mix.next(random);
+            long start = System.nanoTime();
+            boolean success;
+            try {
+                success = client.send(endpoint.request().apply(random), HttpResponse.BodyHandlers.discarding()).statusCode() < 400;
+            } catch (IOException e) {
+                success = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (start >= measureStart) {
+                report.record(endpoint.name(), System.nanoTime() - start, success);
+            }
+        }
+    }
+
+    void runOpen(int rate, int maxInFlight, Duration warmup, Duration duration) throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; ; i++) {
+            long intended = start + i * interval;
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            TrafficMix.Endpoint endpoint = mix.next(random);
+            boolean measured = intended >= measureStart;
+            if (!inFlight.tryAcquire()) {
+                if (measured) {
+                    report.dropped(endpoint.name());
+                }
+                continue;
+            }
+            client.sendAsync(endpoint.request().apply(random), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        inFlight.release();
+                        if (measured) {
+                            report.record(endpoint.name(), System.nanoTime() - intended,
+                                    error == null && response.statusCode() < 400);
+                        }
+                    });
+        }
+        if (!inFlight.tryAcquire(maxInFlight, 60, TimeUnit.SECONDS)) {
+            System.out.println("Some requests did not complete within 60 s after the run");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ru.hogwarts.school.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.hogwarts.school.SchoolApplication;
+import ru.hogwarts.school.loadtest.LatencyReport.LoadTestResult;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Нагрузочный тест приложения целиком: поднимает SchoolApplication на случайном порту, засевает синтетические данные,
+ * гоняет смешанный трафик и печатает пропускную способность и p50/p99/p99.9 по эндпоинтам. Результат пишется в JSON;
+ * если задана базовая линия, прогон сравнивается с ней и при регрессии процесс завершается с кодом 2.
+ * Параметры - в LoadTestOptions
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules().enable(SerializationFeature.INDENT_OUTPUT);
+        int exitCode = 0;
+        ConfigurableApplicationContext context = start(options);
+        try {
+            URI baseUri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+
+            System.out.printf("Seeding %d faculties, %d students and %d avatars into %s%n",
+                    options.faculties(), options.students(), options.avatars(), options.database());
+            DatasetSeeder.Dataset dataset = new DatasetSeeder(context, options.seed()).seed(options, baseUri, client);
+            TrafficMix mix = new TrafficMix(baseUri, dataset, options.mix());
+            System.out.printf("Running %s: %s warmup, %s measured, endpoints %s%n", options.describe(),
+                    options.warmup(), options.duration(), mix.endpoints().stream().map(TrafficMix.Endpoint::name).toList());
+
+            LatencyReport report = new LatencyReport();
+            LoadGenerator generator = new LoadGenerator(client, mix, report);
+            if (options.model() == LoadTestOptions.Model.CLOSED) {
+                generator.runClosed(options.concurrency(), options.warmup(), options.duration());
+            } else {
+                generator.runOpen(options.rate(), options.maxInFlight(), options.warmup(), options.duration());
+            }
+            LoadTestResult result = report.result(options.describe(), options.duration());
+            System.out.print(result.format());
+            write(objectMapper, options.report(), result);
+            System.out.println("Result written to " + options.report());
+
+            Path baseline = options.baseline();
+            if (baseline != null && Files.exists(baseline) && !options.saveBaseline()) {
+                BaselineComparison comparison = new BaselineComparison(
+                        objectMapper.readValue(baseline.toFile(), LoadTestResult.class), result, options.tolerance());
+                System.out.print(comparison.format());
+                exitCode = comparison.hasRegressions() ? 2 : 0;
+            }
+            if (options.saveBaseline()) {
+                Path target = baseline != null ? baseline : Path.of("target/loadtest-baseline.json");
+                write(objectMapper, target, result);
+                System.out.println("Baseline saved to " + target);
+            }
+        } finally {
+            context.close();
+        }
+        System.exit(exitCode);
+    }
+
+    private static ConfigurableApplicationContext start(LoadTestOptions options) {
+        List<String> properties = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--logging.level.ru.hogwarts.school=WARN",
+                "--students.avatar.dir.path=target/loadtest-avatars/" + UUID.randomUUID()));
+        if ("h2".equals(options.database())) {
+            properties.addAll(List.of(
+                    "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                    "--spring.datasource.username=sa",
+                    "--spring.datasource.password=",
+                    "--spring.jpa.hibernate.ddl-auto=create",
+                    "--spring.liquibase.enabled=false"));
+        } else if (!"postgres".equals(options.database())) {
+            throw new IllegalArgumentException("Unknown database " + options.database() + ", expected h2 or postgres");
+        }
+        if (options.jdbcUrl() != null) {
+            properties.add("--spring.datasource.url=" + options.jdbcUrl());
+        }
+        if (options.username() != null) {
+            properties.add("--spring.datasource.username=" + options.username());
+        }
+        if (options.password() != null) {
+            properties.add("--spring.datasource.password=" + options.password());
+        }
+        return new SpringApplicationBuilder(SchoolApplication.class).run(properties.toArray(String[]::new));
+    }
+
+    private static void write(ObjectMapper objectMapper, Path path, LoadTestResult result) throws java.io.IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        objectMapper.writeValue(path.toFile(), result);
+    }
+}
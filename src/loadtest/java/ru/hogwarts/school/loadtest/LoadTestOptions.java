@@ -0,0 +1,84 @@
+package ru.hogwarts.school.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Параметры запуска в виде --ключ=значение:
+ * <ul>
+ *     <li>--database=h2|postgres - встроенная H2 в памяти или база из application.properties (ожидается пустая),
+ *     --jdbc-url, --username, --password переопределяют подключение к Postgres</li>
+ *     <li>--faculties, --students, --avatars - размер синтетических данных</li>
+ *     <li>--model=closed|open - closed: --concurrency потоков шлют запросы друг за другом;
+ *     open: --rate запросов в секунду по расписанию, задержка считается от запланированного времени отправки,
+ *     не больше --max-in-flight запросов одновременно, остальные считаются отброшенными</li>
+ *     <li>--warmup, --duration - длительность прогрева и замера в формате ISO-8601 (PT30S)</li>
+ *     <li>--mix=student.get:30,faculty.get:10 - веса эндпоинтов вместо весов по умолчанию</li>
+ *     <li>--report - куда записать результат, --baseline - с каким результатом сравнить,
+ *     --save-baseline=true - сохранить результат как новую базовую линию, --tolerance - допустимое ухудшение</li>
+ * </ul>
+ */
+record LoadTestOptions(String database,
+                       String jdbcUrl,
+                       String username,
+                       String password,
+                       int faculties,
+                       int students,
+                       int avatars,
+                       Model model,
+                       int concurrency,
+                       int rate,
+                       int maxInFlight,
+                       Duration warmup,
+                       Duration duration,
+                       String mix,
+                       Path report,
+                       Path baseline,
+                       boolean saveBaseline,
+                       double tolerance,
+                       long seed) {
+
+    enum Model {
+        CLOSED,
+        OPEN
+    }
+
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value, got " + arg);
+            }
+            values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        String baseline = values.get("baseline");
+        return new LoadTestOptions(
+                values.getOrDefault("database", "h2"),
+                values.get("jdbc-url"),
+                values.get("username"),
+                values.get("password"),
+                Integer.parseInt(values.getOrDefault("faculties", "20")),
+                Integer.parseInt(values.getOrDefault("students", "10000")),
+                Integer.parseInt(values.getOrDefault("avatars", "200")),
+                Model.valueOf(values.getOrDefault("model", "closed").toUpperCase()),
+                Integer.parseInt(values.getOrDefault("concurrency", "16")),
+                Integer.parseInt(values.getOrDefault("rate", "200")),
+                Integer.parseInt(values.getOrDefault("max-in-flight", "1000")),
+                Duration.parse(values.getOrDefault("warmup", "PT10S")),
+                Duration.parse(values.getOrDefault("duration", "PT30S")),
+                values.get("mix"),
+                Path.of(values.getOrDefault("report", "target/loadtest-result.json")),
+                baseline == null ? null : Path.of(baseline),
+                Boolean.parseBoolean(values.getOrDefault("save-baseline", "false")),
+                Double.parseDouble(values.getOrDefault("tolerance", "0.10")),
+                Long.parseLong(values.getOrDefault("seed", "42")));
+    }
+
+    String describe() {
+        return model == Model.CLOSED
+                ? "closed model, %d concurrent clients".formatted(concurrency)
+                : "open model, %d requests/s, at most %d in flight".formatted(rate, maxInFlight);
+    }
+}
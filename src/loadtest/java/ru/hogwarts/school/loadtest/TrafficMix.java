@@ -0,0 +1,107 @@
+package ru.hogwarts.school.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Смешанный трафик по эндпоинтам /student, /faculty и /avatar. Эндпоинт выбирается случайно с учетом веса,
+ * id берутся из засеянных данных. Эндпоинты аватаров не участвуют, если аватаров нет
+ */
+class TrafficMix {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int totalWeight;
+
+    record Endpoint(String name, int weight, Function<ThreadLocalRandom, HttpRequest> request) {
+    }
+
+    TrafficMix(URI baseUri, DatasetSeeder.Dataset dataset, String mix) {
+        Map<String, Function<ThreadLocalRandom, HttpRequest>> requests = new LinkedHashMap<>();
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        define(requests, weights, "student.get", 20, random -> get(baseUri, "/student/" + pick(random, dataset.studentIds())));
+        define(requests, weights, "student.filter.page", 8, random -> get(baseUri,
+                "/student/filter?startAge=12&endAge=14&page=%d&size=50".formatted(1 + random.nextInt(5))));
+        define(requests, weights, "student.seek", 5, random -> get(baseUri, "/student/all/seek?size=50"));
+        define(requests, weights, "student.names", 8, random -> get(baseUri, "/student/names-start-with?prefix="
+                + DatasetSeeder.NAMES[random.nextInt(DatasetSeeder.NAMES.length)].substring(0, 2) + "&page=1&size=20"));
+        define(requests, weights, "student.average", 4, random -> get(baseUri, "/student/average-stream"));
+        define(requests, weights, "student.count", 4, random -> get(baseUri, "/student/count"));
+        define(requests, weights, "student.create", 3, random -> HttpRequest.newBuilder(baseUri.resolve("/student"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"name\":\"Load %d\",\"age\":%d}".formatted(random.nextInt(1_000_000), 11 + random.nextInt(8))))
+                .build());
+        if (!dataset.facultyIds().isEmpty()) {
+            define(requests, weights, "faculty.get", 10, random -> get(baseUri, "/faculty/" + pick(random, dataset.facultyIds())));
+            define(requests, weights, "faculty.students.page", 6, random -> get(baseUri,
+                    "/faculty/%d/students/page?size=50".formatted(pick(random, dataset.facultyIds()))));
+            define(requests, weights, "faculty.name-stats", 2, random -> get(baseUri, "/faculty/name-stats"));
+        }
+        if (!dataset.avatarStudentIds().isEmpty()) {
+            define(requests, weights, "avatar.preview", 12, random -> get(baseUri,
+                    "/avatar/%d/avatar/preview?width=100".formatted(pick(random, dataset.avatarStudentIds()))));
+            define(requests, weights, "avatar.get", 3, random -> get(baseUri,
+                    "/avatar/%d/avatar".formatted(pick(random, dataset.avatarStudentIds()))));
+            define(requests, weights, "avatar.seek", 3, random -> get(baseUri, "/avatar/page/seek?size=20"));
+        }
+        if (mix != null && !mix.isBlank()) {
+            weights.replaceAll((name, weight) -> 0);
+            for (String entry : mix.split(",")) {
+                String[] parts = entry.split(":");
+                if (!weights.containsKey(parts[0])) {
+                    throw new IllegalArgumentException("Unknown endpoint " + parts[0] + ", expected one of " + weights.keySet());
+                }
+                weights.put(parts[0], Integer.parseInt(parts[1]));
+            }
+        }
+        int total = 0;
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            if (weight.getValue() > 0) {
+                endpoints.add(new Endpoint(weight.getKey(), weight.getValue(), requests.get(weight.getKey())));
+                total += weight.getValue();
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Traffic mix has no endpoints");
+        }
+        this.totalWeight = total;
+    }
+
+    List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    Endpoint next(ThreadLocalRandom random) {
+        int point = random.nextInt(totalWeight);
+        for (Endpoint endpoint : endpoints) {
+            point -= endpoint.weight();
+            if (point < 0) {
+                return endpoint;
+            }
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+    private static void define(Map<String, Function<ThreadLocalRandom, HttpRequest>> requests, Map<String, Integer> weights,
+                               String name, int weight, Function<ThreadLocalRandom, HttpRequest> request) {
+        requests.put(name, request);
+        weights.put(name, weight);
+    }
+
+    private static HttpRequest get(URI baseUri, String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).timeout(REQUEST_TIMEOUT).GET().build();
+    }
+
+    private static long pick(ThreadLocalRandom random, List<Long> ids) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+}
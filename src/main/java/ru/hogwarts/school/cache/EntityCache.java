@@ -0,0 +1,151 @@
+package ru.hogwarts.school.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.EntityCacheStatistics;
+import ru.hogwarts.school.event.StudentChangeListener;
+import ru.hogwarts.school.event.StudentState;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Кэш студентов и факультетов по id с чтением через кэш (students.entity-cache.*). Записи живут не дольше TTL
+ * и вытесняются по размеру. Студент сбрасывается по закоммиченным изменениям студентов, факультет - при изменении
+ * его самого или состава его студентов. Изменение факультета сбрасывает всех студентов, так как факультет
+ * входит в закэшированного студента. Список студентов факультета внутри закэшированного студента другого
+ * студента может отставать не дольше TTL. Выключенный кэш сразу обращается к загрузчику.
+ * Без своего бина EntityCacheInvalidationBroadcaster инвалидации никуда не рассылаются (одна реплика)
+ */
+@Component
+public class EntityCache implements StudentChangeListener {
+    private static final EntityCacheInvalidationBroadcaster LOCAL_BROADCASTER = invalidation -> {
+    };
+
+    private final boolean enabled;
+    private final Cache<Long, Student> students;
+    private final Cache<Long, Faculty> faculties;
+    private final long studentMaxSize;
+    private final long facultyMaxSize;
+    private final EntityCacheInvalidationBroadcaster broadcaster;
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityCache.class);
+
+    public EntityCache(ObjectProvider<EntityCacheInvalidationBroadcaster> broadcaster,
+                       @Value("${students.entity-cache.enabled:false}") boolean enabled,
+                       @Value("${students.entity-cache.student.ttl:PT10M}") Duration studentTtl,
+                       @Value("${students.entity-cache.student.max-size:100000}") long studentMaxSize,
+                       @Value("${students.entity-cache.faculty.ttl:PT30M}") Duration facultyTtl,
+                       @Value("${students.entity-cache.faculty.max-size:1000}") long facultyMaxSize) {
+        this.broadcaster = broadcaster.getIfAvailable(() -> LOCAL_BROADCASTER);
+        this.enabled = enabled;
+        this.studentMaxSize = studentMaxSize;
+        this.facultyMaxSize = facultyMaxSize;
+        this.students = Caffeine.newBuilder()
+                .expireAfterWrite(studentTtl)
+                .maximumSize(studentMaxSize)
+                .recordStats()
+                .build();
+        this.faculties = Caffeine.newBuilder()
+                .expireAfterWrite(facultyTtl)
+                .maximumSize(facultyMaxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param loader возвращает null, если студента нет; отсутствие не кэшируется
+     */
+    public Student getStudent(long id, Function<Long, Student> loader) {
+        return enabled ? students.get(id, loader) : loader.apply(id);
+    }
+
+    public Faculty getFaculty(long id, Function<Long, Faculty> loader) {
+        return enabled ? faculties.get(id, loader) : loader.apply(id);
+    }
+
+    public void invalidateStudent(long id) {
+        invalidate(new EntityCacheInvalidation(EntityCacheInvalidation.Type.STUDENT, id));
+    }
+
+    /**
+     * Студенты сбрасываются вместе с факультетом: в них закэширован сам факультет
+     */
+    public void invalidateFaculty(long id) {
+        invalidate(new EntityCacheInvalidation(EntityCacheInvalidation.Type.FACULTY, id));
+        invalidate(new EntityCacheInvalidation(EntityCacheInvalidation.Type.STUDENT, null));
+    }
+
+    public void invalidateAll() {
+        invalidate(new EntityCacheInvalidation(EntityCacheInvalidation.Type.STUDENT, null));
+        invalidate(new EntityCacheInvalidation(EntityCacheInvalidation.Type.FACULTY, null));
+    }
+
+    /**
+     * Инвалидация, полученная от другой реплики: применяется только локально
+     */
+    public void applyRemote(EntityCacheInvalidation invalidation) {
+        apply(invalidation);
+    }
+
+    @Override
+    public void onStudentChanged(StudentState before, StudentState after) {
+        StudentState state = after != null ? after : before;
+        invalidateStudent(state.id());
+        if (before != null && before.facultyId() != null) {
+            invalidate(new EntityCacheInvalidation(EntityCacheInvalidation.Type.FACULTY, before.facultyId()));
+        }
+        if (after != null && after.facultyId() != null && (before == null || !after.facultyId().equals(before.facultyId()))) {
+            invalidate(new EntityCacheInvalidation(EntityCacheInvalidation.Type.FACULTY, after.facultyId()));
+        }
+    }
+
+    @Override
+    public void onStudentsReloadRequired() {
+        invalidateAll();
+    }
+
+    public EntityCacheStatistics getStudentStatistics() {
+        return statistics(students, studentMaxSize);
+    }
+
+    public EntityCacheStatistics getFacultyStatistics() {
+        return statistics(faculties, facultyMaxSize);
+    }
+
+    private void invalidate(EntityCacheInvalidation invalidation) {
+        if (!enabled) {
+            return;
+        }
+        apply(invalidation);
+        try {
+            broadcaster.publish(invalidation);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to broadcast entity cache invalidation {}", invalidation, e);
+        }
+    }
+
+    private void apply(EntityCacheInvalidation invalidation) {
+        Cache<Long, ?> cache = invalidation.type() == EntityCacheInvalidation.Type.STUDENT ? students : faculties;
+        if (invalidation.id() == null) {
+            cache.invalidateAll();
+        } else {
+            cache.invalidate(invalidation.id());
+        }
+        logger.debug("Entity cache invalidated: {}", invalidation);
+    }
+
+    private static EntityCacheStatistics statistics(Cache<Long, ?> cache, long maxSize) {
+        CacheStats stats = cache.stats();
+        return new EntityCacheStatistics(stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                cache.estimatedSize(), maxSize);
+    }
+}
@@ -0,0 +1,12 @@
+package ru.hogwarts.school.cache;
+
+/**
+ * Сообщение об инвалидации кэша сущностей для других реплик, id равен null - сбросить весь кэш типа
+ */
+public record EntityCacheInvalidation(Type type, Long id) {
+
+    public enum Type {
+        STUDENT,
+        FACULTY
+    }
+}
@@ -0,0 +1,10 @@
+package ru.hogwarts.school.cache;
+
+/**
+ * Рассылка инвалидаций кэша сущностей другим репликам. Реализация для брокера сообщений доставляет
+ * полученные сообщения в EntityCache.applyRemote. Если такого бина нет, рассылка не ведется
+ */
+public interface EntityCacheInvalidationBroadcaster {
+
+    void publish(EntityCacheInvalidation invalidation);
+}
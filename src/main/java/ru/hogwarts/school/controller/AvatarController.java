@@ -1,27 +1,47 @@
 package ru.hogwarts.school.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.hogwarts.school.dto.AvatarImportReport;
+import ru.hogwarts.school.dto.AvatarMetadata;
+import ru.hogwarts.school.dto.CacheStatistics;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarPreview;
+import ru.hogwarts.school.service.AvatarExportService;
+import ru.hogwarts.school.service.AvatarImportService;
 import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.storage.AvatarContent;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("avatar")
 public class AvatarController {
     private final AvatarService avatarService;
+    private final AvatarFileSender avatarFileSender;
+    private final AvatarImportService avatarImportService;
+    private final AvatarExportService avatarExportService;
 
-    public AvatarController(AvatarService avatarService) {
+    public AvatarController(AvatarService avatarService, AvatarFileSender avatarFileSender,
+                            AvatarImportService avatarImportService, AvatarExportService avatarExportService) {
         this.avatarService = avatarService;
+        this.avatarFileSender = avatarFileSender;
+        this.avatarImportService = avatarImportService;
+        this.avatarExportService = avatarExportService;
     }
 
     @PostMapping(value = "/{id}/avatar", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -30,35 +50,92 @@ public class AvatarController {
         return ResponseEntity.ok().build();
     }
 
-    @GetMapping(value = "/{id}/avatar/preview")
-    public ResponseEntity<byte[]> downloadAvatar(@PathVariable Long id) {
-        Avatar avatar = avatarService.findAvatar(id);
+    /**
+     * Принимает ZIP архив телом запроса, элементы названы по id студента: 42.png, photos/43.jpg.
+     * Архив не буферизуется целиком, в ответе - результат по каждому элементу
+     */
+    @PostMapping(value = "/import", consumes = {"application/zip", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public AvatarImportReport importAvatars(HttpServletRequest request) throws IOException {
+        return avatarImportService.importZip(request.getInputStream());
+    }
+
+    /**
+     * Архив пишется прямо в ответ по мере чтения курсора, фильтры по факультету и диапазону id студентов необязательны
+     */
+    @GetMapping(value = "/export", produces = "application/zip")
+    public ResponseEntity<StreamingResponseBody> exportAvatars(@RequestParam(required = false) Long facultyId,
+                                                               @RequestParam(defaultValue = "0") long fromId,
+                                                               @RequestParam(defaultValue = "" + Long.MAX_VALUE) long toId,
+                                                               @RequestParam(defaultValue = "ORIGINALS") AvatarExportService.Content content) {
+        StreamingResponseBody body = out -> avatarExportService.export(facultyId, fromId, toId, content, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"avatars.zip\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
 
+    /**
+     * Отдает наименьшее превью не уже width. Пока превью не сгенерированы, их генерация ставится в очередь,
+     * а отдается старое превью из базы или исходный файл аватара. Для изображения, которое не удалось декодировать,
+     * генерация повторно не ставится, отдается исходный файл
+     */
+    @GetMapping(value = "/{id}/avatar/preview")
+    public ResponseEntity<Resource> downloadAvatar(@PathVariable Long id, @RequestParam(required = false) Integer width) throws IOException {
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.parseMediaType(avatar.getMediaType()));
-        headers.setContentLength(avatar.getData().length);
+        Resource body;
+
+        Optional<AvatarPreview> preview = avatarService.findPreview(id, width);
+        if (preview.isPresent()) {
+            headers.setContentType(MediaType.parseMediaType(preview.get().getMediaType()));
+            headers.setContentLength(preview.get().getData().length);
+            body = new ByteArrayResource(preview.get().getData());
+        } else {
+            Avatar avatar = avatarService.getAvatar(id);
+            avatarService.schedulePreviews(avatar);
+            headers.setContentType(MediaType.parseMediaType(avatar.getMediaType()));
+            if (avatar.getData() != null) {
+                headers.setContentLength(avatar.getData().length);
+                body = new ByteArrayResource(avatar.getData());
+            } else {
+                AvatarContent content = avatarService.openContent(avatar);
+                headers.setContentLength(content.size());
+                Optional<Path> file = content.file();
+                body = file.isPresent() ? new FileSystemResource(file.get()) : new InputStreamResource(content.newInputStream());
+            }
+        }
 
         return ResponseEntity
                 .status(HttpStatus.OK)
                 .headers(headers)
-                .body(avatar.getData());
+                .body(body);
     }
 
+    /**
+     * Поддерживает условные запросы (If-None-Match, If-Modified-Since) и Range, в том числе несколько диапазонов
+     */
     @GetMapping(value = "/{id}/avatar")
-    public void downloadAvatar(@PathVariable Long id,  HttpServletResponse response) throws IOException {
-        Avatar avatar = avatarService.findAvatar(id);
-
-        Path path = Path.of(avatar.getFilePath());
-
-        response.setContentType(avatar.getMediaType());
-        response.setContentLength((int) avatar.getFileSize());
-
-        Files.copy(path, response.getOutputStream());
+    public void downloadAvatar(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Avatar avatar = avatarService.getAvatar(id);
+        avatarFileSender.send(avatarService.openContent(avatar), avatar.getMediaType(), avatar.getChecksum(), request, response);
     }
 
     @GetMapping("/page")
-    public ResponseEntity<List<Avatar>> getAllAvatars(@RequestParam("page") Integer pageNumber, @RequestParam("size") Integer pageSize) {
-        List<Avatar> avatars = avatarService.findAllAvatars(pageNumber, pageSize);
+    public ResponseEntity<List<AvatarMetadata>> getAllAvatars(@RequestParam("page") Integer pageNumber, @RequestParam("size") Integer pageSize) {
+        List<AvatarMetadata> avatars = avatarService.findAllAvatars(pageNumber, pageSize);
         return ResponseEntity.ok(avatars);
     }
+
+    /**
+     * Следующая страница запрашивается с afterId, равным id последнего аватара предыдущей страницы
+     */
+    @GetMapping("/page/seek")
+    public ResponseEntity<List<AvatarMetadata>> getAvatarsAfter(@RequestParam(value = "afterId", defaultValue = "0") Long afterId,
+                                                                @RequestParam("size") Integer pageSize) {
+        return ResponseEntity.ok(avatarService.findAvatarsAfter(afterId, pageSize));
+    }
+
+    @GetMapping("/preview-cache/stats")
+    public CacheStatistics getPreviewCacheStatistics() {
+        return avatarService.getPreviewCacheStatistics();
+    }
 }
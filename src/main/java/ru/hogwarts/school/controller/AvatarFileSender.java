@@ -0,0 +1,172 @@
+package ru.hogwarts.school.controller;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.hogwarts.school.storage.AvatarContent;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Отдает файл аватара с поддержкой ETag / If-None-Match, Last-Modified и Range запросов.
+ * Одиночный диапазон или весь файл отправляются через sendfile, если содержимое лежит в отдельном файле
+ * и sendfile поддерживает коннектор Tomcat, иначе через transferTo хранилища без промежуточного буфера в приложении
+ */
+@Component
+public class AvatarFileSender {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarFileSender.class);
+
+    public void send(AvatarContent content, String mediaType, String checksum,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = content.size();
+        long lastModified = content.lastModified();
+        String etag = "\"" + checksum + "\"";
+
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            logger.debug("Avatar {} not modified", etag);
+            return;
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        List<Region> regions;
+        try {
+            regions = resolveRegions(request, etag, lastModified, length);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unsatisfiable range {} for avatar {}", request.getHeader(HttpHeaders.RANGE), etag);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            return;
+        }
+
+        if (regions.isEmpty()) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(mediaType);
+            sendRegion(content, new Region(0, length), request, response);
+        } else if (regions.size() == 1) {
+            Region region = regions.get(0);
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setContentType(mediaType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, region.contentRange(length));
+            sendRegion(content, region, request, response);
+        } else {
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            sendMultipart(content, mediaType, regions, length, response);
+        }
+    }
+
+    /**
+     * Пустой список означает ответ целиком: заголовка Range нет, он некорректен или не совпал If-Range
+     */
+    private List<Region> resolveRegions(HttpServletRequest request, String etag, long lastModified, long length) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !matchesIfRange(request, etag, lastModified)) {
+            return List.of();
+        }
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring malformed range header {}", rangeHeader);
+            return List.of();
+        }
+        List<Region> regions = new ArrayList<>(ranges.size());
+        long total = 0;
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (start >= length || end < start) {
+                throw new IllegalArgumentException("Range " + range + " is outside of file length " + length);
+            }
+            total += end - start + 1;
+            regions.add(new Region(start, end - start + 1));
+        }
+        if (regions.size() > 1 && total > length) {
+            throw new IllegalArgumentException("Total length of ranges exceeds file length");
+        }
+        return regions;
+    }
+
+    private boolean matchesIfRange(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+        return ifRangeDate != -1 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+
+    private void sendRegion(AvatarContent content, Region region, HttpServletRequest request,
+                            HttpServletResponse response) throws IOException {
+        response.setContentLengthLong(region.length());
+        Optional<Path> file = content.file();
+        if (file.isPresent() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.get().toRealPath().toString());
+            request.setAttribute(SENDFILE_START, region.start());
+            request.setAttribute(SENDFILE_END, region.start() + region.length());
+            logger.debug("File {} handed to sendfile, bytes {}-{}", file.get(), region.start(), region.end());
+            return;
+        }
+        content.transferTo(region.start(), region.length(), Channels.newChannel(response.getOutputStream()));
+    }
+
+    private void sendMultipart(AvatarContent content, String mediaType, List<Region> regions, long length,
+                               HttpServletResponse response) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>(regions.size());
+        long contentLength = 0;
+        for (Region region : regions) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + mediaType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + region.contentRange(length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + region.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        ServletOutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (int i = 0; i < regions.size(); i++) {
+            out.write(partHeaders.get(i));
+            content.transferTo(regions.get(i).start(), regions.get(i).length(), channel);
+        }
+        out.write(closing);
+    }
+
+    private record Region(long start, long length) {
+        long end() {
+            return start + length - 1;
+        }
+
+        String contentRange(long total) {
+            return "bytes " + start + "-" + end() + "/" + total;
+        }
+    }
+}
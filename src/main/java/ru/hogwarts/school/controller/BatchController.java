@@ -0,0 +1,30 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.hogwarts.school.dto.BatchOperation;
+import ru.hogwarts.school.dto.BatchOperationResult;
+import ru.hogwarts.school.service.BatchService;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("batch")
+public class BatchController {
+    private final BatchService batchService;
+
+    public BatchController(BatchService batchService) {
+        this.batchService = batchService;
+    }
+
+    /**
+     * Создание, изменение и удаление студентов и факультетов одним запросом в одной транзакции.
+     * Операции выполняются в порядке запроса, результаты - в том же порядке
+     */
+    @PostMapping
+    public List<BatchOperationResult> execute(@RequestBody List<BatchOperation> operations) {
+        return batchService.execute(operations);
+    }
+}
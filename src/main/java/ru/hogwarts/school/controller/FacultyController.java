@@ -1,11 +1,19 @@
     package ru.hogwarts.school.controller;
 
+    import org.springframework.http.MediaType;
     import org.springframework.http.ResponseEntity;
     import org.springframework.web.bind.annotation.*;
+    import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+    import ru.hogwarts.school.dto.EntityCacheStatistics;
+    import ru.hogwarts.school.dto.FacultyNameStatistics;
+    import ru.hogwarts.school.dto.KeysetPage;
     import ru.hogwarts.school.model.Faculty;
     import ru.hogwarts.school.model.Student;
     import ru.hogwarts.school.service.FacultyService;
+    import ru.hogwarts.school.service.NdjsonExportService;
+    import ru.hogwarts.school.service.StudentService;
 
+    import java.util.Arrays;
     import java.util.Collection;
     import java.util.Collections;
 
@@ -13,9 +21,15 @@
     @RequestMapping("faculty")
     public class FacultyController {
         private final FacultyService facultyService;
+        private final NdjsonExportService ndjsonExportService;
+        private final StudentService studentService;
 
-        public FacultyController(FacultyService facultyService) {
+        public FacultyController(FacultyService facultyService,
+                                 NdjsonExportService ndjsonExportService,
+                                 StudentService studentService) {
             this.facultyService = facultyService;
+            this.ndjsonExportService = ndjsonExportService;
+            this.studentService = studentService;
         }
 
         @PostMapping
@@ -30,18 +44,35 @@
 
         /**
          * когда объект не найден то ResponseEntity.notFound().build(); выдает код 404
+         * студенты выводятся только с include=students
          *
          * @param id
          * @return
          */
         @GetMapping("{id}")
-        public Faculty getFaculty(@PathVariable Long id) {
-            return facultyService.findFaculties(id);
+        public Faculty getFaculty(@PathVariable Long id, @RequestParam(required = false) String include) {
+            return facultyService.findFaculties(id, includesStudents(include));
         }
 
         @GetMapping("/all")
-        public Collection<Faculty> getAllFaculties() {
-            return facultyService.getAllFaculties();
+        public Collection<Faculty> getAllFaculties(@RequestParam(required = false) String include) {
+            return facultyService.getAllFaculties(includesStudents(include));
+        }
+
+        /**
+         * Следующая страница запрашивается с cursor, равным nextCursor предыдущей
+         */
+        @GetMapping("/all/seek")
+        public KeysetPage<Faculty> getFacultiesPage(@RequestParam(defaultValue = "ID") FacultyService.SortKey sort,
+                                                    @RequestParam(required = false) String cursor,
+                                                    @RequestParam(defaultValue = "100") int size) {
+            return facultyService.findFacultiesPage(sort, cursor, Math.min(size, 1000));
+        }
+
+        @GetMapping(value = "/all/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+        public ResponseEntity<StreamingResponseBody> streamAllFaculties() {
+            StreamingResponseBody body = ndjsonExportService::exportFaculties;
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
         }
 
         /**
@@ -63,24 +94,60 @@
         @GetMapping("filter")
         public ResponseEntity<Collection<Faculty>> filteredFaculty(
                 @RequestParam(required = false) String color,
-                @RequestParam(required = false) String facultyName) {
+                @RequestParam(required = false) String facultyName,
+                @RequestParam(required = false) String include) {
             if (color != null && !color.isBlank()) {
-                return ResponseEntity.ok(facultyService.filteredFacultyByColor(color));
+                return ResponseEntity.ok(facultyService.filteredFacultyByColor(color, includesStudents(include)));
             }
             if (facultyName != null && !facultyName.isBlank()) {
-                return ResponseEntity.ok(facultyService.filteredFacultyByName(facultyName));
+                return ResponseEntity.ok(facultyService.filteredFacultyByName(facultyName, includesStudents(include)));
             }
             return ResponseEntity.ok(Collections.emptyList());
         }
 
         @GetMapping("{facultyId}/students")
         public ResponseEntity<Collection<Student>> findStudentsByFaculty(@PathVariable Long facultyId) {
-            Faculty faculty = facultyService.findFaculties(facultyId);
-            return ResponseEntity.ok(faculty.getStudents());
+            return ResponseEntity.ok(facultyService.getStudentsOfFaculty(facultyId));
+        }
+
+        /**
+         * Состав факультета страницами по ключу, следующая страница запрашивается с cursor, равным nextCursor
+         */
+        @GetMapping("{facultyId}/students/page")
+        public KeysetPage<Student> findStudentsPageByFaculty(@PathVariable Long facultyId,
+                                                             @RequestParam(defaultValue = "ID") StudentService.SortKey sort,
+                                                             @RequestParam(required = false) String cursor,
+                                                             @RequestParam(defaultValue = "100") int size,
+                                                             @RequestParam(required = false) Integer minAge,
+                                                             @RequestParam(required = false) Integer maxAge) {
+            facultyService.findFaculties(facultyId);
+            return studentService.findStudentsOfFacultyPage(facultyId, sort, cursor, Math.min(size, 1000), minAge, maxAge);
+        }
+
+        @GetMapping("{facultyId}/students/count")
+        public long countStudentsByFaculty(@PathVariable Long facultyId,
+                                           @RequestParam(required = false) Integer minAge,
+                                           @RequestParam(required = false) Integer maxAge) {
+            facultyService.findFaculties(facultyId);
+            return studentService.countStudentsOfFaculty(facultyId, minAge, maxAge);
+        }
+
+        @GetMapping("/cache/stats")
+        public EntityCacheStatistics getCacheStatistics() {
+            return facultyService.getCacheStatistics();
         }
 
         @GetMapping("longest-faculty-name")
         public String findLongestFacultyName() {
             return facultyService.getLongestFacultyName();
         }
+
+        @GetMapping("name-stats")
+        public FacultyNameStatistics getNameStatistics() {
+            return facultyService.getNameStatistics();
+        }
+
+        private static boolean includesStudents(String include) {
+            return include != null && Arrays.asList(include.split(",")).contains("students");
+        }
     }
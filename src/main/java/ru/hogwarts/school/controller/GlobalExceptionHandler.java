@@ -1,16 +1,50 @@
 package ru.hogwarts.school.controller;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import ru.hogwarts.school.exception.InvalidBatchException;
+import ru.hogwarts.school.exception.InvalidPageException;
+import ru.hogwarts.school.exception.InvalidSymbolException;
 import ru.hogwarts.school.exception.ObjectNotFoundException;
 
 @ControllerAdvice
 public class GlobalExceptionHandler {
+    static final String DATA_INTEGRITY_VIOLATION_MESSAGE = "Операция нарушает ограничения данных и не выполнена";
+
+    private static final Logger logger = LoggerFactory.getLogger(GlobalExceptionHandler.class);
 
     @ExceptionHandler(ObjectNotFoundException.class)
     public ResponseEntity<String> handleObjectNotFound(ObjectNotFoundException e) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
     }
+
+    @ExceptionHandler(InvalidBatchException.class)
+    public ResponseEntity<String> handleInvalidBatch(InvalidBatchException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
+
+    /**
+     * Нарушение ограничений базы, например удаление студента с аватаром, откатывает всю операцию.
+     * Сообщение драйвера с именами таблиц, ограничений и значениями пишется только в лог
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<String> handleDataIntegrityViolation(DataIntegrityViolationException e) {
+        logger.warn("Data integrity violation: {}", e.getMostSpecificCause().getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(DATA_INTEGRITY_VIOLATION_MESSAGE);
+    }
+
+    @ExceptionHandler(InvalidPageException.class)
+    public ResponseEntity<String> handleInvalidPage(InvalidPageException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
+
+    @ExceptionHandler(InvalidSymbolException.class)
+    public ResponseEntity<String> handleInvalidSymbol(InvalidSymbolException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
 }
@@ -0,0 +1,62 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.hogwarts.school.dto.JobResult;
+import ru.hogwarts.school.dto.JobStatus;
+import ru.hogwarts.school.service.JobService;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
+
+@RestController
+@RequestMapping("jobs")
+public class JobController {
+    private final JobService jobService;
+
+    public JobController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    static ResponseEntity<JobStatus> accepted(JobStatus status) {
+        return ResponseEntity.accepted().location(URI.create("/jobs/" + status.id())).body(status);
+    }
+
+    @GetMapping
+    public Collection<JobStatus> getJobs() {
+        return jobService.getJobs();
+    }
+
+    @GetMapping("{id}")
+    public JobStatus getStatus(@PathVariable long id) {
+        return jobService.getStatus(id);
+    }
+
+    /**
+     * Результат завершенной задачи, 202 со статусом - задача еще выполняется,
+     * 409 со статусом - задача отменена или завершилась ошибкой
+     */
+    @GetMapping("{id}/result")
+    public ResponseEntity<?> getResult(@PathVariable long id) {
+        JobStatus status = jobService.getStatus(id);
+        if (!status.finished()) {
+            return accepted(status);
+        }
+        if (status.state() != JobStatus.State.COMPLETED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(status);
+        }
+        return ResponseEntity.ok(new JobResult(status.id(), status.type(), status.processedItems(),
+                Duration.between(status.submittedAt(), status.finishedAt()).toMillis()));
+    }
+
+    @DeleteMapping("{id}")
+    public ResponseEntity<JobStatus> cancel(@PathVariable long id) {
+        return accepted(jobService.cancel(id));
+    }
+}
@@ -1,11 +1,24 @@
 package ru.hogwarts.school.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.hogwarts.school.dto.EntityCacheStatistics;
+import ru.hogwarts.school.dto.JobStatus;
+import ru.hogwarts.school.dto.KeysetPage;
+import ru.hogwarts.school.dto.PrintSinkStatistics;
+import ru.hogwarts.school.dto.StudentImportReport;
+import ru.hogwarts.school.dto.StudentAggregatesConsistency;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.service.FacultyService;
+import ru.hogwarts.school.service.NdjsonExportService;
+import ru.hogwarts.school.service.StudentImportService;
 import ru.hogwarts.school.service.StudentService;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -14,9 +27,18 @@ import java.util.List;
 @RequestMapping("student")
 public class StudentController {
     private final StudentService studentService;
-
-    public StudentController(StudentService studentService) {
+    private final NdjsonExportService ndjsonExportService;
+    private final StudentImportService studentImportService;
+    private final FacultyService facultyService;
+
+    public StudentController(StudentService studentService,
+                             NdjsonExportService ndjsonExportService,
+                             StudentImportService studentImportService,
+                             FacultyService facultyService) {
         this.studentService = studentService;
+        this.facultyService = facultyService;
+        this.ndjsonExportService = ndjsonExportService;
+        this.studentImportService = studentImportService;
     }
 
     @PostMapping
@@ -29,6 +51,17 @@ public class StudentController {
         return studentService.createStudentWithParameters(name, age);
     }
 
+    /**
+     * Массовый импорт телом запроса: CSV со строками name,age,faculty или NDJSON. Тело не буферизуется,
+     * в ответе - число вставленных строк и ошибки отклоненных
+     */
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE})
+    public StudentImportReport importStudents(HttpServletRequest request) throws IOException {
+        StudentImportService.Format format = MediaType.parseMediaType(request.getContentType())
+                .isCompatibleWith(MediaType.APPLICATION_NDJSON) ? StudentImportService.Format.NDJSON : StudentImportService.Format.CSV;
+        return studentImportService.importStudents(request.getInputStream(), format);
+    }
+
     @GetMapping("{id}")
     public Student getStudent(@PathVariable long id) {
         return  studentService.findStudent(id);
@@ -39,6 +72,22 @@ public class StudentController {
         return studentService.getAllStudents();
     }
 
+    /**
+     * Следующая страница запрашивается с cursor, равным nextCursor предыдущей
+     */
+    @GetMapping("/all/seek")
+    public KeysetPage<Student> getStudentsPage(@RequestParam(defaultValue = "ID") StudentService.SortKey sort,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestParam(defaultValue = "100") int size) {
+        return studentService.findStudentsPage(sort, cursor, Math.min(size, 1000));
+    }
+
+    @GetMapping(value = "/all/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllStudents() {
+        StreamingResponseBody body = ndjsonExportService::exportStudents;
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     @PutMapping
     public Student editStudent(@RequestBody Student student) {
         return studentService.editStudent(student);
@@ -53,7 +102,18 @@ public class StudentController {
     public ResponseEntity<Collection<Student>> filteredStudents(
             @RequestParam(required = false) Integer age,
             @RequestParam(required = false) Integer startAge,
-            @RequestParam (required = false) Integer endAge) {
+            @RequestParam (required = false) Integer endAge,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer size) {
+        if (page != null || size != null) {
+            int from = age != null ? age : startAge != null ? startAge : 0;
+            int to = age != null ? age : endAge != null ? endAge : 0;
+            if (from <= 0 || to < from) {
+                return ResponseEntity.ok(Collections.emptyList());
+            }
+            return ResponseEntity.ok(studentService.findByAgeBetween(from, to,
+                    page != null ? page : 1, Math.min(size != null ? size : 50, 1000)));
+        }
         if (age != null && age > 0) {
             return ResponseEntity.ok(studentService.filteredStudentByAge(age));
         }
@@ -63,10 +123,15 @@ public class StudentController {
         return ResponseEntity.ok(Collections.emptyList());
     }
 
+    @GetMapping("filter/count")
+    public long countStudentsByAge(@RequestParam int startAge, @RequestParam int endAge) {
+        return studentService.countByAgeBetween(startAge, endAge);
+    }
+
     @GetMapping("{studentId}/faculty")
     public ResponseEntity<Faculty> findFacultyByStudent(@PathVariable Long studentId) {
         Student student = studentService.findStudent(studentId);
-        return ResponseEntity.ok(student.getFaculty());
+        return ResponseEntity.ok(facultyService.withStudents(student.getFaculty()));
     }
 
     @GetMapping("/count")
@@ -79,6 +144,19 @@ public class StudentController {
         return studentService.getAverageAgeOfStudents();
     }
 
+    @GetMapping("/cache/stats")
+    public EntityCacheStatistics getCacheStatistics() {
+        return studentService.getCacheStatistics();
+    }
+
+    /**
+     * Сверяет агрегаты count и average в памяти с базой
+     */
+    @GetMapping("/aggregates/consistency")
+    public StudentAggregatesConsistency checkAggregatesConsistency() {
+        return studentService.checkAggregatesConsistency();
+    }
+
     @GetMapping("/last-students")
     public List<Student> findLastFiveStudents() {
         return studentService.getLastFiveStudents();
@@ -89,6 +167,16 @@ public class StudentController {
         return studentService.getStudentsByNameStartsWithSymbol(symbol);
     }
 
+    /**
+     * Имена, начинающиеся с префикса любой длины, постранично (page с 1)
+     */
+    @GetMapping("/names-start-with")
+    public List<String> findStudentNamesByPrefix(@RequestParam("prefix") String prefix,
+                                                 @RequestParam(value = "page", defaultValue = "1") int page,
+                                                 @RequestParam(value = "size", defaultValue = "50") int size) {
+        return studentService.findNamesByPrefix(prefix, page, Math.min(size, 1000));
+    }
+
     @GetMapping("/average-stream")
     public double getAverageAgeOfStudentsStream() {
         return studentService.getAverageAgeOfStudentsStream();
@@ -99,15 +187,21 @@ public class StudentController {
         return studentService.calculateSum();
     }
 
+    /**
+     * Запускает фоновую задачу и сразу отвечает 202, ход выполнения - по ссылке из Location
+     */
     @GetMapping("print-parallel")
-    public ResponseEntity<String> printStudentsNameParallel() {
-        studentService.printStudentsNameParallel();
-        return ResponseEntity.ok("Вывод имен студентов в параллельном режиме завершён");
+    public ResponseEntity<JobStatus> printStudentsNameParallel() {
+        return JobController.accepted(studentService.printStudentsNameParallel());
     }
 
     @GetMapping("print-synchronized")
-    public ResponseEntity<String> printStudentsNameSynchronized() {
-        studentService.printStudentNamesSynchronized();
-        return ResponseEntity.ok("Вывод имен студентов в синхронизированном режиме завершён");
+    public ResponseEntity<JobStatus> printStudentsNameSynchronized() {
+        return JobController.accepted(studentService.printStudentNamesSynchronized());
+    }
+
+    @GetMapping("print-sink/stats")
+    public PrintSinkStatistics getPrintSinkStatistics() {
+        return studentService.getPrintSinkStatistics();
     }
 }
@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Ссылка аватара на файл без загрузки самой сущности
+ */
+public record AvatarFileRef(Long studentId, String checksum, String filePath) {
+}
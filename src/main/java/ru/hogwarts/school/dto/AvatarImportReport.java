@@ -0,0 +1,12 @@
+package ru.hogwarts.school.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Отчет об импорте архива: число элементов по статусам и результат каждого элемента в порядке архива
+ */
+public record AvatarImportReport(long durationMillis,
+                                 Map<AvatarImportResult.Status, Long> summary,
+                                 List<AvatarImportResult> entries) {
+}
@@ -0,0 +1,22 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Результат импорта одного элемента ZIP архива
+ */
+public record AvatarImportResult(String entry, Long studentId, Status status, String message) {
+
+    public enum Status {
+        IMPORTED,
+        UNCHANGED,
+        STUDENT_NOT_FOUND,
+        DUPLICATE_STUDENT,
+        INVALID_NAME,
+        UNSUPPORTED_TYPE,
+        TOO_LARGE,
+        FAILED
+    }
+
+    public static AvatarImportResult of(String entry, Long studentId, Status status) {
+        return new AvatarImportResult(entry, studentId, status, null);
+    }
+}
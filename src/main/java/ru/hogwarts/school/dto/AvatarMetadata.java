@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Метаданные аватара для постраничного вывода, без содержимого и без связанного студента
+ */
+public record AvatarMetadata(long id, String filePath, long fileSize, String mediaType, Long studentId) {
+}
@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Превью аватара студента для экспорта в архив
+ */
+public record AvatarPreviewExport(Long studentId, int width, String mediaType, byte[] data) {
+}
@@ -0,0 +1,25 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Операция пакетного запроса. Для студента используются name, age и facultyId, для факультета - name и color,
+ * id обязателен для UPDATE и DELETE
+ */
+public record BatchOperation(Action action,
+                             Target target,
+                             Long id,
+                             String name,
+                             Integer age,
+                             Long facultyId,
+                             String color) {
+
+    public enum Action {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    public enum Target {
+        STUDENT,
+        FACULTY
+    }
+}
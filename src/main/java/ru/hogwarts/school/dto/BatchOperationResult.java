@@ -0,0 +1,19 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Результат операции пакета, index - позиция операции в запросе
+ */
+public record BatchOperationResult(int index, Status status, Long id, String message) {
+
+    public enum Status {
+        CREATED,
+        UPDATED,
+        DELETED,
+        NOT_FOUND,
+        INVALID
+    }
+
+    public static BatchOperationResult of(int index, Status status, Long id) {
+        return new BatchOperationResult(index, status, id, null);
+    }
+}
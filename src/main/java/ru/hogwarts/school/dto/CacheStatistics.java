@@ -0,0 +1,14 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Счетчики кэша, weightedSize и maximumWeight - в байтах для кэшей с ограничением по объему
+ */
+public record CacheStatistics(long hitCount,
+                              long missCount,
+                              double hitRate,
+                              long evictionCount,
+                              long evictionWeight,
+                              long estimatedSize,
+                              long weightedSize,
+                              long maximumWeight) {
+}
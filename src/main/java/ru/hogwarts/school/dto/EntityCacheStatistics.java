@@ -0,0 +1,12 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Счетчики кэша сущностей, ограниченного числом записей: estimatedSize и maximumSize - в записях
+ */
+public record EntityCacheStatistics(long hitCount,
+                                    long missCount,
+                                    double hitRate,
+                                    long evictionCount,
+                                    long estimatedSize,
+                                    long maximumSize) {
+}
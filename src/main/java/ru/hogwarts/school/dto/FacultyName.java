@@ -0,0 +1,4 @@
+package ru.hogwarts.school.dto;
+
+public record FacultyName(long id, String name) {
+}
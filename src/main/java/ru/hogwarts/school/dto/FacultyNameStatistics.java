@@ -0,0 +1,12 @@
+package ru.hogwarts.school.dto;
+
+import java.util.SortedMap;
+
+/**
+ * @param lengthDistribution число факультетов по длине названия
+ */
+public record FacultyNameStatistics(String longestName,
+                                    String shortestName,
+                                    int faculties,
+                                    SortedMap<Integer, Integer> lengthDistribution) {
+}
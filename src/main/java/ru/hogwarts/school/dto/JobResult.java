@@ -0,0 +1,4 @@
+package ru.hogwarts.school.dto;
+
+public record JobResult(long id, String type, long processedItems, long durationMillis) {
+}
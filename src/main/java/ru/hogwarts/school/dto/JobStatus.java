@@ -0,0 +1,31 @@
+package ru.hogwarts.school.dto;
+
+import java.time.Instant;
+
+/**
+ * @param completedChunks обработано частей из totalChunks
+ * @param processedItems  обработано записей во всех завершенных частях
+ */
+public record JobStatus(long id,
+                        String type,
+                        State state,
+                        int totalChunks,
+                        int completedChunks,
+                        long processedItems,
+                        String error,
+                        Instant submittedAt,
+                        Instant finishedAt) {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        CANCELLING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    public boolean finished() {
+        return finishedAt != null;
+    }
+}
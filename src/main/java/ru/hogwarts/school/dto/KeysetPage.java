@@ -0,0 +1,9 @@
+package ru.hogwarts.school.dto;
+
+import java.util.List;
+
+/**
+ * Страница постраничного вывода по ключу. nextCursor передается в следующий запрос, null - страница последняя
+ */
+public record KeysetPage<T>(List<T> items, String nextCursor) {
+}
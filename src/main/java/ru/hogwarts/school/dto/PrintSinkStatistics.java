@@ -0,0 +1,4 @@
+package ru.hogwarts.school.dto;
+
+public record PrintSinkStatistics(long written, long dropped, int pending, int capacity, String overflow) {
+}
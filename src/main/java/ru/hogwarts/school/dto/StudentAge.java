@@ -0,0 +1,4 @@
+package ru.hogwarts.school.dto;
+
+public record StudentAge(long id, int age) {
+}
@@ -0,0 +1,16 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Агрегаты по возрасту студентов: число студентов, сумма возрастов и число студентов с ненулевым возрастом
+ */
+public record StudentAgeTotals(long count, long ageSum, long nonZeroAgeCount) {
+    public static final StudentAgeTotals EMPTY = new StudentAgeTotals(0, 0, 0);
+
+    public StudentAgeTotals plus(int age) {
+        return new StudentAgeTotals(count + 1, ageSum + age, nonZeroAgeCount + (age != 0 ? 1 : 0));
+    }
+
+    public StudentAgeTotals minus(int age) {
+        return new StudentAgeTotals(count - 1, ageSum - age, nonZeroAgeCount - (age != 0 ? 1 : 0));
+    }
+}
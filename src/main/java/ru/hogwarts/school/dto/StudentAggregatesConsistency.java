@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Сравнение агрегатов в памяти с посчитанными базой, memory равно null, пока агрегаты не загружены
+ */
+public record StudentAggregatesConsistency(StudentAgeTotals memory, StudentAgeTotals database, boolean consistent) {
+}
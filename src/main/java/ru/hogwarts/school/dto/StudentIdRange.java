@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Наименьший и наибольший id студентов, оба null для пустой таблицы
+ */
+public record StudentIdRange(Long minId, Long maxId) {
+}
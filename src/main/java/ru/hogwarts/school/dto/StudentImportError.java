@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+/**
+ * Ошибка строки импорта, line - номер строки входного файла с 1
+ */
+public record StudentImportError(long line, String message) {
+}
@@ -0,0 +1,10 @@
+package ru.hogwarts.school.dto;
+
+import java.util.List;
+
+/**
+ * Итог импорта студентов. errors содержит не больше students.import.max-reported-errors первых ошибок,
+ * failed - число всех отклоненных строк
+ */
+public record StudentImportReport(long durationMillis, long imported, long failed, List<StudentImportError> errors) {
+}
@@ -0,0 +1,20 @@
+package ru.hogwarts.school.event;
+
+/**
+ * Подписчик на закоммиченные изменения студентов. Вызывается после коммита транзакции в потоке, который ее выполнял.
+ * Производные структуры (индексы, агрегаты, кэши) обновляются по этим событиям, а не перечитывают таблицу
+ */
+public interface StudentChangeListener {
+
+    /**
+     * @param before состояние до изменения, null для нового студента
+     * @param after  состояние после изменения, null для удаленного студента
+     */
+    void onStudentChanged(StudentState before, StudentState after);
+
+    /**
+     * Студенты изменены в обход Hibernate (пакетная вставка, массовое удаление): производные данные
+     * нужно построить заново
+     */
+    void onStudentsReloadRequired();
+}
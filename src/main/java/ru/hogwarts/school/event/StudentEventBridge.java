@@ -0,0 +1,204 @@
+package ru.hogwarts.school.event;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Передает закоммиченные вставки, изменения и удаления студентов из Hibernate подписчикам StudentChangeListener.
+ * Подписчики берутся из контекста при каждом событии, поэтому мост не создает циклических зависимостей.
+ * Мост также считает транзакции, которые уже записали изменения студентов, но еще не завершились:
+ * их коммит может быть виден в базе раньше, чем подписчики получат событие
+ */
+@Component
+public class StudentEventBridge implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+        PostCommitDeleteEventListener {
+    private final EntityManagerFactory entityManagerFactory;
+    private final ObjectProvider<StudentChangeListener> listeners;
+    private final AtomicInteger changesInFlight = new AtomicInteger();
+    private final AtomicLong flushes = new AtomicLong();
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentEventBridge.class);
+
+    public StudentEventBridge(EntityManagerFactory entityManagerFactory, ObjectProvider<StudentChangeListener> listeners) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.listeners = listeners;
+    }
+
+    @PostConstruct
+    public void register() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+        FlushListener flushListener = new FlushListener();
+        registry.appendListeners(EventType.POST_INSERT, flushListener);
+        registry.appendListeners(EventType.POST_UPDATE, flushListener);
+        registry.appendListeners(EventType.POST_DELETE, flushListener);
+        logger.debug("Student change listeners registered in Hibernate");
+    }
+
+    /**
+     * Число записей изменений студентов в базу. Если оно не изменилось за время запроса, а после его чтения
+     * и до запроса незавершенных транзакций не было, то все видимые запросу изменения уже переданы подписчикам
+     */
+    public long flushes() {
+        return flushes.get();
+    }
+
+    /**
+     * @return true, если есть записанные в базу изменения студентов, транзакции которых еще не завершились
+     */
+    public boolean hasChangesInFlight() {
+        return changesInFlight.get() > 0;
+    }
+
+    /**
+     * Сообщает подписчикам об изменении студентов в обход Hibernate
+     */
+    public void publishReloadRequired() {
+        listeners.orderedStream().forEach(listener -> {
+            try {
+                listener.onStudentsReloadRequired();
+            } catch (RuntimeException e) {
+                logger.error("Student change listener {} failed to reload", listener.getClass().getSimpleName(), e);
+            }
+        });
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return Student.class.equals(persister.getMappedClass());
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Student) {
+            publish(null, state(event.getPersister(), (Long) event.getId(), event.getState()));
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Student) {
+            Long id = (Long) event.getId();
+            StudentState after = state(event.getPersister(), id, event.getState());
+            StudentState before = event.getOldState() == null ? null : state(event.getPersister(), id, event.getOldState());
+            publish(before, after);
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Student) {
+            publish(state(event.getPersister(), (Long) event.getId(), event.getDeletedState()), null);
+        }
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    /**
+     * Отмечает изменение незавершенным до afterCompletion транзакции. Hibernate вызывает подписчиков
+     * при коммите, то есть раньше, чем Spring вызывает afterCompletion
+     */
+    private void markInFlight() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            changesInFlight.incrementAndGet();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    changesInFlight.decrementAndGet();
+                }
+            });
+        }
+        flushes.incrementAndGet();
+    }
+
+    private void publish(StudentState before, StudentState after) {
+        listeners.orderedStream().forEach(listener -> {
+            try {
+                listener.onStudentChanged(before, after);
+            } catch (RuntimeException e) {
+                logger.error("Student change listener {} failed", listener.getClass().getSimpleName(), e);
+            }
+        });
+    }
+
+    private StudentState state(EntityPersister persister, Long id, Object[] values) {
+        Object name = values[persister.getPropertyIndex("name")];
+        Object age = values[persister.getPropertyIndex("age")];
+        Object faculty = values[persister.getPropertyIndex("faculty")];
+        return new StudentState(id, (String) name, age == null ? 0 : (Integer) age, facultyId(faculty));
+    }
+
+    private Long facultyId(Object faculty) {
+        if (faculty instanceof HibernateProxy proxy) {
+            return (Long) proxy.getHibernateLazyInitializer().getInternalIdentifier();
+        }
+        return faculty instanceof Faculty loaded ? loaded.getId() : null;
+    }
+
+    private class FlushListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return false;
+        }
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (event.getEntity() instanceof Student) {
+                markInFlight();
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (event.getEntity() instanceof Student) {
+                markInFlight();
+            }
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            if (event.getEntity() instanceof Student) {
+                markInFlight();
+            }
+        }
+    }
+}
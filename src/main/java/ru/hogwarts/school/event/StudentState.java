@@ -0,0 +1,7 @@
+package ru.hogwarts.school.event;
+
+/**
+ * Значения полей студента до или после закоммиченного изменения
+ */
+public record StudentState(long id, String name, int age, Long facultyId) {
+}
@@ -0,0 +1,7 @@
+package ru.hogwarts.school.exception;
+
+public class ImageTooLargeException extends RuntimeException {
+    public ImageTooLargeException(int width, int height, long maxPixels) {
+        super("Image %dx%d exceeds the limit of %d pixels".formatted(width, height, maxPixels));
+    }
+}
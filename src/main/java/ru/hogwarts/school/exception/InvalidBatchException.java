@@ -0,0 +1,7 @@
+package ru.hogwarts.school.exception;
+
+public class InvalidBatchException extends RuntimeException {
+    public InvalidBatchException(String message) {
+        super(message);
+    }
+}
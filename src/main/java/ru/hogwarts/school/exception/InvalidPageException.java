@@ -0,0 +1,11 @@
+package ru.hogwarts.school.exception;
+
+public class InvalidPageException extends RuntimeException {
+    public InvalidPageException(int page, int size) {
+        super("Некорректная страница %d размером %d: номер и размер должны быть больше нуля".formatted(page, size));
+    }
+
+    public InvalidPageException(String message) {
+        super(message);
+    }
+}
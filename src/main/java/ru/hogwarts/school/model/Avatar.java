@@ -16,6 +16,7 @@ public class Avatar {
     private String filePath;
     private long fileSize;
     private String mediaType;
+    private String checksum;
 
     @Lob
     @JsonIgnore
@@ -52,6 +53,10 @@ public class Avatar {
         return mediaType;
     }
 
+    public String getChecksum() {
+        return checksum;
+    }
+
     public byte[] getData() {
         return data;
     }
@@ -76,6 +81,10 @@ public class Avatar {
         this.mediaType = mediaType;
     }
 
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
     public void setData(byte[] data) {
         this.data = data;
     }
@@ -104,6 +113,7 @@ public class Avatar {
                 " filePath: " + filePath +
                 " fileSize: " + fileSize +
                 " mediaType: " + mediaType +
+                " checksum: " + checksum +
                 " student=" + student;
     }
 }
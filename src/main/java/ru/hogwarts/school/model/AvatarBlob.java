@@ -0,0 +1,94 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+import java.util.Objects;
+
+/**
+ * Уникальное содержимое аватара, адресуемое по SHA-256. refCount - число аватаров, ссылающихся на файл
+ */
+@Entity
+public class AvatarBlob {
+
+    @Id
+    private String checksum;
+
+    private String filePath;
+    private long fileSize;
+    private String mediaType;
+    private int refCount;
+
+    public AvatarBlob() {
+    }
+
+    public AvatarBlob(String checksum, String filePath, long fileSize, String mediaType, int refCount) {
+        this.checksum = checksum;
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.mediaType = mediaType;
+        this.refCount = refCount;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public void setMediaType(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AvatarBlob blob = (AvatarBlob) o;
+        return Objects.equals(checksum, blob.checksum);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(checksum);
+    }
+
+    @Override
+    public String toString() {
+        return "AvatarBlob: " +
+                "checksum: " + checksum +
+                " filePath: " + filePath +
+                " fileSize: " + fileSize +
+                " refCount: " + refCount;
+    }
+}
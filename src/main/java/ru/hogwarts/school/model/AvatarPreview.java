@@ -0,0 +1,107 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.*;
+
+import java.util.Objects;
+
+/**
+ * Превью аватара одного размера. Привязано к контрольной сумме исходного файла, а не к студенту,
+ * поэтому после повторной загрузки старые превью не отдаются
+ */
+@Entity
+public class AvatarPreview {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long id;
+
+    private String checksum;
+    private int width;
+    private int height;
+    private String mediaType;
+
+    @Column(length = 16 * 1024 * 1024)
+    private byte[] data;
+
+    public AvatarPreview() {
+    }
+
+    public AvatarPreview(String checksum, int width, int height, String mediaType, byte[] data) {
+        this.checksum = checksum;
+        this.width = width;
+        this.height = height;
+        this.mediaType = mediaType;
+        this.data = data;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public void setMediaType(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AvatarPreview preview = (AvatarPreview) o;
+        return id == preview.id && width == preview.width && height == preview.height && Objects.equals(checksum, preview.checksum);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, checksum, width, height);
+    }
+
+    @Override
+    public String toString() {
+        return "AvatarPreview: " +
+                "id: " + id +
+                " checksum: " + checksum +
+                " width: " + width +
+                " height: " + height +
+                " mediaType: " + mediaType;
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
 import jakarta.persistence.*;
+import org.hibernate.Hibernate;
 
 import java.util.Collection;
 import java.util.Objects;
@@ -18,8 +19,13 @@ public class Faculty {
     private String name;
     private String color;
 
-    @OneToMany(mappedBy = "faculty", cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+    /**
+     * Загружается только по запросу (include=students). Незагруженный список не выводится в JSON
+     * и не подгружается при сериализации
+     */
+    @OneToMany(mappedBy = "faculty", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JsonManagedReference
+    @JsonInclude(value = JsonInclude.Include.CUSTOM, valueFilter = UninitializedFilter.class)
     private Collection<Student> students;
 
     public Faculty() {
@@ -63,6 +69,21 @@ public class Faculty {
         this.students = students;
     }
 
+    /**
+     * Фильтр Jackson: значение исключается, если equals вернул true
+     */
+    public static class UninitializedFilter {
+        @Override
+        public boolean equals(Object value) {
+            return value != null && !Hibernate.isInitialized(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
     @Override
     public String toString() {
         return "Факультет: " + "id: " + id + " Название: " + name + " Цвет: " + color;
@@ -0,0 +1,46 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.hogwarts.school.model.AvatarBlob;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface AvatarBlobRepository extends JpaRepository<AvatarBlob, String> {
+
+    @Query("select b.filePath from AvatarBlob b where b.checksum = :checksum")
+    Optional<String> findFilePathByChecksum(@Param("checksum") String checksum);
+
+    /**
+     * Блокирует строки в порядке контрольных сумм, чтобы параллельные пакеты не захватывали их навстречу друг другу
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from AvatarBlob b where b.checksum in :checksums order by b.checksum")
+    List<AvatarBlob> findAllForUpdate(@Param("checksums") Collection<String> checksums);
+
+    /**
+     * Счетчик меняется одним update, строка блокируется до конца транзакции
+     * @return 0 если такого содержимого еще нет
+     */
+    @Modifying
+    @Query("update AvatarBlob b set b.refCount = b.refCount + 1 where b.checksum = :checksum")
+    int incrementRefCount(@Param("checksum") String checksum);
+
+    @Modifying
+    @Query("update AvatarBlob b set b.refCount = b.refCount + :count where b.checksum = :checksum")
+    int addRefCount(@Param("checksum") String checksum, @Param("count") int count);
+
+    @Modifying
+    @Query("update AvatarBlob b set b.refCount = b.refCount - 1 where b.checksum = :checksum")
+    int decrementRefCount(@Param("checksum") String checksum);
+
+    @Modifying
+    @Query("delete from AvatarBlob b where b.checksum = :checksum and b.refCount <= 0")
+    int deleteUnreferenced(@Param("checksum") String checksum);
+}
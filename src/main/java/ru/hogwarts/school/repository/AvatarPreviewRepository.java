@@ -0,0 +1,42 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.persistence.QueryHint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.hogwarts.school.dto.AvatarPreviewExport;
+import ru.hogwarts.school.model.AvatarPreview;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface AvatarPreviewRepository extends JpaRepository<AvatarPreview, Long> {
+
+    boolean existsByChecksum(String checksum);
+
+    /**
+     * Все размеры превью текущего аватара студента, без загрузки самого аватара
+     */
+    @Query("select p from AvatarPreview p where p.checksum = " +
+            "(select a.checksum from Avatar a where a.student.id = :studentId) order by p.width")
+    List<AvatarPreview> findByStudentId(@Param("studentId") Long studentId);
+
+    /**
+     * Курсор по превью для экспорта с тем же фильтром, что и AvatarRepository.streamMetadata.
+     * Меньший fetchSize, так как строки содержат сами изображения
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "50"))
+    @Query("select new ru.hogwarts.school.dto.AvatarPreviewExport(a.student.id, p.width, p.mediaType, p.data) " +
+            "from Avatar a join AvatarPreview p on p.checksum = a.checksum " +
+            "where a.student.id between :fromId and :toId " +
+            "and (:facultyId is null or a.student.faculty.id = :facultyId) order by a.student.id, p.width")
+    Stream<AvatarPreviewExport> streamForExport(@Param("facultyId") Long facultyId,
+                                                @Param("fromId") long fromId,
+                                                @Param("toId") long toId);
+
+    @Modifying
+    @Query("delete from AvatarPreview p where p.checksum = :checksum")
+    int deleteByChecksum(@Param("checksum") String checksum);
+}
@@ -1,11 +1,74 @@
 package ru.hogwarts.school.repository;
 
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.hogwarts.school.dto.AvatarFileRef;
+import ru.hogwarts.school.dto.AvatarMetadata;
 import ru.hogwarts.school.model.Avatar;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface AvatarRepository extends JpaRepository<Avatar, Long> {
 
     Optional<Avatar> findByStudentId(Long studentId);
+
+    boolean existsByChecksum(String checksum);
+
+    /**
+     * Читает только колонки метаданных: ни data, ни студент с факультетом не загружаются
+     */
+    @Query("select new ru.hogwarts.school.dto.AvatarMetadata(a.id, a.filePath, a.fileSize, a.mediaType, a.student.id) " +
+            "from Avatar a order by a.id")
+    List<AvatarMetadata> findMetadata(Pageable pageable);
+
+    /**
+     * Постраничный вывод по ключу: следующая страница начинается после последнего id предыдущей,
+     * поэтому глубокие страницы не требуют пропуска offset строк
+     */
+    @Query("select new ru.hogwarts.school.dto.AvatarMetadata(a.id, a.filePath, a.fileSize, a.mediaType, a.student.id) " +
+            "from Avatar a where a.id > :afterId order by a.id")
+    List<AvatarMetadata> findMetadataAfter(@Param("afterId") long afterId, Limit limit);
+
+    /**
+     * Курсор по метаданным для экспорта: строки читаются порциями по fetchSize и не попадают в контекст
+     * персистентности, поэтому память не растет с размером выборки. Поток нужно читать внутри транзакции
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query("select new ru.hogwarts.school.dto.AvatarMetadata(a.id, a.filePath, a.fileSize, a.mediaType, a.student.id) " +
+            "from Avatar a where a.student.id between :fromId and :toId " +
+            "and (:facultyId is null or a.student.faculty.id = :facultyId) order by a.student.id")
+    Stream<AvatarMetadata> streamMetadata(@Param("facultyId") Long facultyId,
+                                          @Param("fromId") long fromId,
+                                          @Param("toId") long toId);
+
+    @Query("select new ru.hogwarts.school.dto.AvatarFileRef(a.student.id, a.checksum, a.filePath) " +
+            "from Avatar a where a.student.id = :studentId")
+    Optional<AvatarFileRef> findFileRefByStudentId(@Param("studentId") Long studentId);
+
+    @Query("select new ru.hogwarts.school.dto.AvatarFileRef(a.student.id, a.checksum, a.filePath) " +
+            "from Avatar a where a.student.id in :studentIds")
+    List<AvatarFileRef> findFileRefsByStudentIds(@Param("studentIds") Collection<Long> studentIds);
+
+    /**
+     * Обновляет метаданные аватара студента одним запросом, не загружая сущность вместе с колонкой data.
+     * Старое превью сбрасывается, так как оно относится к предыдущему файлу
+     * @return количество обновленных строк, 0 если у студента еще нет аватара
+     */
+    @Modifying
+    @Query("update Avatar a set a.filePath = :filePath, a.fileSize = :fileSize, a.mediaType = :mediaType, " +
+            "a.checksum = :checksum, a.data = null where a.student.id = :studentId")
+    int updateByStudentId(@Param("studentId") Long studentId,
+                          @Param("filePath") String filePath,
+                          @Param("fileSize") long fileSize,
+                          @Param("mediaType") String mediaType,
+                          @Param("checksum") String checksum);
 }
@@ -1,13 +1,65 @@
 package ru.hogwarts.school.repository;
 
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.hogwarts.school.dto.FacultyName;
 import ru.hogwarts.school.model.Faculty;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 
 public interface FacultyRepository extends JpaRepository<Faculty, Long> {
     List<Faculty> findByColor(String color);
 
     List<Faculty> findByNameIgnoreCase(String name);
+
+    /**
+     * Варианты с include=students: студенты загружаются тем же запросом через entity graph
+     */
+    @EntityGraph(attributePaths = "students")
+    Optional<Faculty> findWithStudentsById(long id);
+
+    @EntityGraph(attributePaths = "students")
+    @Query("select f from Faculty f")
+    List<Faculty> findAllWithStudents();
+
+    @EntityGraph(attributePaths = "students")
+    List<Faculty> findWithStudentsByColor(String color);
+
+    @EntityGraph(attributePaths = "students")
+    List<Faculty> findWithStudentsByNameIgnoreCase(String name);
+
+    @Query("select new ru.hogwarts.school.dto.FacultyName(f.id, f.name) from Faculty f order by f.id")
+    List<FacultyName> findAllNames();
+
+    /**
+     * Названия факультетов от короткого к длинному, без обращения к студентам
+     */
+    @Query("select new ru.hogwarts.school.dto.FacultyName(f.id, f.name) from Faculty f " +
+            "where f.name is not null order by length(f.name), f.id")
+    List<FacultyName> findNamesOrderByLength();
+
+    @Query("select f from Faculty f where f.id > :afterId order by f.id")
+    List<Faculty> findPageAfterId(@Param("afterId") long afterId, Limit limit);
+
+    /**
+     * Факультеты без названия идут первыми, как с пустым названием
+     */
+    @Query("select f from Faculty f where coalesce(f.name, '') > :afterName " +
+            "or (coalesce(f.name, '') = :afterName and f.id > :afterId) order by coalesce(f.name, ''), f.id")
+    List<Faculty> findPageAfterName(@Param("afterName") String afterName, @Param("afterId") long afterId, Limit limit);
+
+    /**
+     * Курсор по всем факультетам для потоковой выгрузки, читать внутри транзакции
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "100"))
+    @Query("select f from Faculty f order by f.id")
+    Stream<Faculty> streamAll();
 }
@@ -1,22 +1,120 @@
 package ru.hogwarts.school.repository;
 
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.hogwarts.school.dto.StudentAge;
+import ru.hogwarts.school.dto.StudentAgeTotals;
+import ru.hogwarts.school.dto.StudentIdRange;
+import ru.hogwarts.school.dto.StudentName;
 import ru.hogwarts.school.model.Student;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface StudentRepository extends JpaRepository<Student, Long> {
     List<Student> findByAge(int age);
 
     List<Student> findByAgeBetween(int startAge, int endAge);
 
+    List<Student> findByAgeBetween(int startAge, int endAge, Pageable pageable);
+
+    long countByAgeBetween(int startAge, int endAge);
+
+    List<Student> findByFacultyId(long facultyId);
+
+    @Query("select new ru.hogwarts.school.dto.StudentAge(s.id, s.age) from Student s")
+    List<StudentAge> findAllAges();
+
+    /**
+     * Поиск по началу имени без учета регистра. В Postgres использует индекс student_name_lower_prefix_index
+     * (lower(name) varchar_pattern_ops), сортируются только найденные строки
+     * @param pattern экранированный префикс в нижнем регистре с % в конце, см. StudentService.likePrefixPattern
+     */
+    @Query("select s.name from Student s where lower(s.name) like :pattern escape '\\' order by lower(s.name), s.id")
+    List<String> findNamesByPrefix(@Param("pattern") String pattern, Pageable pageable);
+
+    /**
+     * Страницы по ключу. Студенты создаются конструктором без факультета: в JSON он не выводится,
+     * а вне контекста персистентности не тянет за собой факультет со всеми его студентами
+     */
+    @Query("select new ru.hogwarts.school.model.Student(s.id, s.name, s.age) from Student s " +
+            "where s.id > :afterId order by s.id")
+    List<Student> findPageAfterId(@Param("afterId") long afterId, Limit limit);
+
+    @Query("select new ru.hogwarts.school.model.Student(s.id, s.name, s.age) from Student s " +
+            "where s.age > :afterAge or (s.age = :afterAge and s.id > :afterId) order by s.age, s.id")
+    List<Student> findPageAfterAge(@Param("afterAge") int afterAge, @Param("afterId") long afterId, Limit limit);
+
+    /**
+     * Страницы студентов факультета с фильтром по возрасту, используют индексы student_faculty_id_index
+     * и student_faculty_id_age_index
+     */
+    @Query("select new ru.hogwarts.school.model.Student(s.id, s.name, s.age) from Student s " +
+            "where s.faculty.id = :facultyId and s.age between :minAge and :maxAge and s.id > :afterId order by s.id")
+    List<Student> findFacultyPageAfterId(@Param("facultyId") long facultyId,
+                                         @Param("minAge") int minAge,
+                                         @Param("maxAge") int maxAge,
+                                         @Param("afterId") long afterId,
+                                         Limit limit);
+
+    @Query("select new ru.hogwarts.school.model.Student(s.id, s.name, s.age) from Student s " +
+            "where s.faculty.id = :facultyId and s.age between :minAge and :maxAge " +
+            "and (s.age > :afterAge or (s.age = :afterAge and s.id > :afterId)) order by s.age, s.id")
+    List<Student> findFacultyPageAfterAge(@Param("facultyId") long facultyId,
+                                          @Param("minAge") int minAge,
+                                          @Param("maxAge") int maxAge,
+                                          @Param("afterAge") int afterAge,
+                                          @Param("afterId") long afterId,
+                                          Limit limit);
+
+    long countByFacultyIdAndAgeBetween(long facultyId, int minAge, int maxAge);
+
+    /**
+     * Курсор по всем студентам для потоковой выгрузки, читать внутри транзакции
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("select new ru.hogwarts.school.model.Student(s.id, s.name, s.age) from Student s order by s.id")
+    Stream<Student> streamAll();
+
+    @Query("select new ru.hogwarts.school.dto.StudentName(s.id, s.name) from Student s")
+    List<StudentName> findAllNames();
+
+    @Query("select new ru.hogwarts.school.dto.StudentIdRange(min(s.id), max(s.id)) from Student s")
+    StudentIdRange findIdRange();
+
+    /**
+     * id, которым заканчиваются skip + 1 студентов после afterId, или null, если их меньше.
+     * Читается только индекс по id
+     */
+    @Query(value = "select id from student where id > :afterId order by id limit 1 offset :skip", nativeQuery = true)
+    Long findIdAfter(@Param("afterId") long afterId, @Param("skip") int skip);
+
+    @Query("select s.name from Student s where s.id between :fromId and :toId order by s.id")
+    List<String> findNamesByIdBetween(@Param("fromId") long fromId, @Param("toId") long toId);
+
+    /**
+     * Блокирует строки студентов до конца транзакции, в порядке id, чтобы параллельные пакеты
+     * не захватывали их навстречу друг другу
+     */
+    @Query(value = "select id from student where id in (:ids) order by id for update", nativeQuery = true)
+    List<Long> lockExistingIds(@Param("ids") Collection<Long> ids);
+
     @Query(value = "select count(id) from student", nativeQuery = true)
     int countAllStudents();
 
     @Query(value = "select avg(age) from student", nativeQuery = true)
     Double averageAgeOfStudents();
 
+    @Query("select new ru.hogwarts.school.dto.StudentAgeTotals(count(s), coalesce(sum(s.age), 0L), "
+            + "coalesce(sum(case when s.age <> 0 then 1L else 0L end), 0L)) from Student s")
+    StudentAgeTotals calculateAgeTotals();
+
     /**
      * Внешний под-запрос сортирует записи в порядке их добавления по id хронологически, хоть и предполагаю что записи все
      * равно перемешаются когда буду вносить в них изменения
@@ -0,0 +1,320 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.dto.AvatarFileRef;
+import ru.hogwarts.school.model.AvatarBlob;
+import ru.hogwarts.school.repository.AvatarBlobRepository;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.storage.AvatarContent;
+import ru.hogwarts.school.storage.AvatarStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Хранилище содержимого аватаров, адресуемого по SHA-256: одинаковые изображения хранятся в AvatarStorage
+ * один раз, превью для них тоже хранятся в базе один раз. Содержимое удаляется, когда на него не остается ссылок
+ */
+@Service
+public class AvatarBlobStore {
+    private static final String INSERT_BLOB_SQL = "insert into avatar_blob (checksum, file_path, file_size, media_type, ref_count) " +
+            "values (?, ?, ?, ?, ?)";
+    private static final String UPDATE_BLOB_PATH_SQL = "update avatar_blob set file_path = ? where checksum = ?";
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private final AvatarBlobRepository avatarBlobRepository;
+    private final AvatarRepository avatarRepository;
+    private final AvatarPreviewRepository avatarPreviewRepository;
+    private final AvatarStorage avatarStorage;
+    private final JdbcTemplate jdbcTemplate;
+    private final Path tempDir;
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarBlobStore.class);
+
+    public AvatarBlobStore(AvatarBlobRepository avatarBlobRepository,
+                           AvatarRepository avatarRepository,
+                           AvatarPreviewRepository avatarPreviewRepository,
+                           AvatarStorage avatarStorage,
+                           JdbcTemplate jdbcTemplate,
+                           @Value("${students.avatar.dir.path}") String avatarsDir) {
+        this.avatarBlobRepository = avatarBlobRepository;
+        this.avatarRepository = avatarRepository;
+        this.avatarPreviewRepository = avatarPreviewRepository;
+        this.avatarStorage = avatarStorage;
+        this.jdbcTemplate = jdbcTemplate;
+        this.tempDir = Path.of(avatarsDir, "tmp");
+    }
+
+    /**
+     * Временный файл с уже посчитанными размером и контрольной суммой
+     */
+    public record StagedFile(Path tempFile, String checksum, long size) {
+    }
+
+    /**
+     * Потоково пишет содержимое во временный файл, считая SHA-256 по пути
+     */
+    public StagedFile stage(InputStream content) throws IOException {
+        Files.createDirectories(tempDir);
+        Path tempFile = Files.createTempFile(tempDir, "avatar-", ".upload");
+        MessageDigest digest = newChecksumDigest();
+        try (InputStream in = new DigestInputStream(content, digest)) {
+            long size = Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            return new StagedFile(tempFile, HexFormat.of().formatHex(digest.digest()), size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    public void discard(StagedFile staged) throws IOException {
+        Files.deleteIfExists(staged.tempFile());
+    }
+
+    /**
+     * Если такое содержимое уже есть, временный файл удаляется и увеличивается счетчик ссылок,
+     * иначе сначала вставляется строка содержимого, и только после этого файл переносится в хранилище.
+     * Параллельная первая загрузка того же содержимого ждет на уникальном ключе и после коммита первой
+     * использует уже сохраненный файл. При откате перенесенный файл удаляется
+     * @return адрес содержимого в AvatarStorage
+     */
+    public String acquire(StagedFile staged, String extension, String mediaType) throws IOException {
+        if (avatarBlobRepository.incrementRefCount(staged.checksum()) == 1) {
+            return reuse(staged);
+        }
+        String location = storeNew(staged, extension, mediaType, 1);
+        if (location == null) {
+            addConcurrentRefs(staged.checksum(), 1);
+            return reuse(staged);
+        }
+        return location;
+    }
+
+    /**
+     * Вставляет строку содержимого и только после этого переносит файл в хранилище
+     * @return адрес содержимого или null, если строку уже вставила параллельная транзакция
+     */
+    private String storeNew(StagedFile staged, String extension, String mediaType, int refCount) throws IOException {
+        if (!insertBlob(staged, mediaType, refCount)) {
+            return null;
+        }
+        String location = avatarStorage.store(staged.checksum(), extension, staged.tempFile());
+        deleteOnRollback(location);
+        jdbcTemplate.update(UPDATE_BLOB_PATH_SQL, location, staged.checksum());
+        logger.debug("New avatar content {} stored in {}", staged.checksum(), location);
+        return location;
+    }
+
+    private void addConcurrentRefs(String checksum, int count) {
+        if (avatarBlobRepository.addRefCount(checksum, count) == 0) {
+            throw new IllegalStateException("Avatar content " + checksum + " was removed during upload");
+        }
+    }
+
+    private String reuse(StagedFile staged) throws IOException {
+        discard(staged);
+        String filePath = avatarBlobRepository.findFilePathByChecksum(staged.checksum()).orElseThrow();
+        logger.debug("Duplicate avatar content {} detected, stored content {} reused", staged.checksum(), filePath);
+        return filePath;
+    }
+
+    /**
+     * Вставка в точке сохранения: при нарушении уникальности откатывается только она, а не вся транзакция.
+     * Путь пока временный, после переноса файла он заменяется адресом в хранилище
+     * @return false если строку с такой контрольной суммой уже вставила параллельная транзакция
+     */
+    private boolean insertBlob(StagedFile staged, String mediaType, int refCount) {
+        return Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            Savepoint savepoint = connection.setSavepoint();
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_BLOB_SQL)) {
+                statement.setString(1, staged.checksum());
+                statement.setString(2, staged.tempFile().toString());
+                statement.setLong(3, staged.size());
+                statement.setString(4, mediaType);
+                statement.setInt(5, refCount);
+                statement.executeUpdate();
+                connection.releaseSavepoint(savepoint);
+                return true;
+            } catch (SQLException e) {
+                if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                    throw e;
+                }
+                connection.rollback(savepoint);
+                logger.debug("Avatar content {} was inserted by a concurrent upload", staged.checksum());
+                return false;
+            }
+        }));
+    }
+
+    /**
+     * Пакетный вариант acquire для импорта. Существующие строки блокируются одним select for update,
+     * счетчики меняются в загруженных сущностях и уходят пакетом при flush. Новое содержимое вставляется
+     * как в acquire, в точке сохранения: если его параллельно вставила другая загрузка, пакет не падает,
+     * а увеличивает счетчик ее строки. Повторяющееся в пакете содержимое сохраняется один раз
+     * @return адрес содержимого по контрольной сумме
+     */
+    public Map<String, String> acquireAll(List<AvatarImportEntry> entries) throws IOException {
+        Map<String, List<AvatarImportEntry>> byChecksum = entries.stream()
+                .collect(Collectors.groupingBy(entry -> entry.staged().checksum(), TreeMap::new, Collectors.toList()));
+        Map<String, AvatarBlob> existing = avatarBlobRepository.findAllForUpdate(byChecksum.keySet()).stream()
+                .collect(Collectors.toMap(AvatarBlob::getChecksum, Function.identity()));
+        Map<String, String> locations = new TreeMap<>();
+        for (Map.Entry<String, List<AvatarImportEntry>> group : byChecksum.entrySet()) {
+            String checksum = group.getKey();
+            List<AvatarImportEntry> sameContent = group.getValue();
+            AvatarBlob blob = existing.get(checksum);
+            int moved = 0;
+            String location;
+            if (blob != null) {
+                blob.setRefCount(blob.getRefCount() + sameContent.size());
+                location = blob.getFilePath();
+            } else {
+                AvatarImportEntry stored = sameContent.get(0);
+                location = storeNew(stored.staged(), stored.extension(), stored.mediaType(), sameContent.size());
+                if (location != null) {
+                    moved = 1;
+                } else {
+                    addConcurrentRefs(checksum, sameContent.size());
+                    location = avatarBlobRepository.findFilePathByChecksum(checksum).orElseThrow();
+                }
+            }
+            for (AvatarImportEntry duplicate : sameContent.subList(moved, sameContent.size())) {
+                discard(duplicate.staged());
+            }
+            locations.put(checksum, location);
+        }
+        logger.debug("{} avatar contents acquired in batch, {} of them already stored", byChecksum.size(), existing.size());
+        return locations;
+    }
+
+    /**
+     * Снимает ссылку аватара на прежний файл. Файлы, загруженные до появления хранилища, принадлежат
+     * одному студенту и удаляются сразу после коммита
+     */
+    public void release(AvatarFileRef previous) {
+        String checksum = previous.checksum();
+        Optional<String> blobPath = checksum == null
+                ? Optional.empty()
+                : avatarBlobRepository.findFilePathByChecksum(checksum);
+        if (blobPath.filter(path -> path.equals(previous.filePath())).isPresent()) {
+            avatarBlobRepository.decrementRefCount(checksum);
+            if (avatarBlobRepository.deleteUnreferenced(checksum) == 1) {
+                int previews = avatarPreviewRepository.deleteByChecksum(checksum);
+                deleteOnCommit(blobPath.get());
+                logger.debug("Avatar content {} is no longer referenced, {} previews removed", checksum, previews);
+            }
+            return;
+        }
+        if (checksum != null && blobPath.isEmpty() && !avatarRepository.existsByChecksum(checksum)) {
+            avatarPreviewRepository.deleteByChecksum(checksum);
+        }
+        if (previous.filePath() != null) {
+            deleteOnCommit(previous.filePath());
+        }
+    }
+
+    public AvatarContent open(String location) throws IOException {
+        return avatarStorage.open(location);
+    }
+
+    public String checksumOf(AvatarContent content) throws IOException {
+        MessageDigest digest = newChecksumDigest();
+        try (InputStream in = new DigestInputStream(content.newInputStream(), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Содержимое сразу становится недоступным новым загрузкам, а окончательно удаляется только после коммита.
+     * При откате оно восстанавливается
+     */
+    private void deleteOnCommit(String location) {
+        AvatarStorage.PendingDeletion deletion;
+        try {
+            deletion = avatarStorage.prepareDelete(location);
+        } catch (IOException e) {
+            logger.warn("Failed to mark avatar content {} for deletion", location, e);
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            completeDeletion(deletion, location, true);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                completeDeletion(deletion, location, status == STATUS_COMMITTED);
+            }
+        });
+    }
+
+    /**
+     * Содержимое, перенесенное в хранилище в этой транзакции, при откате удаляется: строки, ссылающейся на него,
+     * после отката нет
+     */
+    private void deleteOnRollback(String location) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    return;
+                }
+                try {
+                    avatarStorage.prepareDelete(location).commit();
+                    logger.debug("Avatar content {} removed after rollback", location);
+                } catch (IOException e) {
+                    logger.error("Failed to remove avatar content {} after rollback", location, e);
+                }
+            }
+        });
+    }
+
+    private void completeDeletion(AvatarStorage.PendingDeletion deletion, String location, boolean committed) {
+        try {
+            if (committed) {
+                deletion.commit();
+            } else {
+                deletion.rollback();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to {} deletion of avatar content {}", committed ? "complete" : "roll back", location, e);
+        }
+    }
+
+    private MessageDigest newChecksumDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+}
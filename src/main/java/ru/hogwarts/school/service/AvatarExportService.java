@@ -0,0 +1,133 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.dto.AvatarMetadata;
+import ru.hogwarts.school.dto.AvatarPreviewExport;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
+import ru.hogwarts.school.repository.AvatarRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Потоковый экспорт аватаров в ZIP: originals/42.png и previews/42-100.png.
+ * Метаданные и превью читаются курсором в read-only транзакции, содержимое копируется в ответ через
+ * небольшой буфер, так что память не зависит от числа аватаров (растет только оглавление архива).
+ * Изображения уже сжаты, поэтому элементы пишутся без сжатия
+ */
+@Service
+public class AvatarExportService {
+    private final AvatarRepository avatarRepository;
+    private final AvatarPreviewRepository avatarPreviewRepository;
+    private final AvatarBlobStore avatarBlobStore;
+    private final TransactionTemplate readOnlyTransaction;
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarExportService.class);
+
+    public AvatarExportService(AvatarRepository avatarRepository,
+                               AvatarPreviewRepository avatarPreviewRepository,
+                               AvatarBlobStore avatarBlobStore,
+                               PlatformTransactionManager transactionManager) {
+        this.avatarRepository = avatarRepository;
+        this.avatarPreviewRepository = avatarPreviewRepository;
+        this.avatarBlobStore = avatarBlobStore;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public enum Content {
+        ORIGINALS,
+        PREVIEWS,
+        ALL
+    }
+
+    /**
+     * @param facultyId только студенты факультета, null - все
+     * @param fromId    id студента, с которого начинается выборка, включительно
+     * @param toId      id студента, которым заканчивается выборка, включительно
+     */
+    public void export(Long facultyId, long fromId, long toId, Content content, OutputStream out) throws IOException {
+        logger.info("Method export with faculty ID {}, student IDs {}-{} and content {} invoked", facultyId, fromId, toId, content);
+        long start = System.currentTimeMillis();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        try {
+            int[] counts = readOnlyTransaction.execute(status -> {
+                try {
+                    int originals = content == Content.PREVIEWS ? 0 : writeOriginals(facultyId, fromId, toId, zip);
+                    int previews = content == Content.ORIGINALS ? 0 : writePreviews(facultyId, fromId, toId, zip);
+                    return new int[]{originals, previews};
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            zip.finish();
+            logger.debug("{} originals and {} previews exported in {} ms", counts[0], counts[1],
+                    System.currentTimeMillis() - start);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private int writeOriginals(Long facultyId, long fromId, long toId, ZipOutputStream zip) throws IOException {
+        int count = 0;
+        try (Stream<AvatarMetadata> avatars = avatarRepository.streamMetadata(facultyId, fromId, toId)) {
+            Iterator<AvatarMetadata> iterator = avatars.iterator();
+            while (iterator.hasNext()) {
+                AvatarMetadata avatar = iterator.next();
+                String extension = avatar.filePath().substring(avatar.filePath().lastIndexOf('.') + 1);
+                String name = "originals/" + avatar.studentId() + "." + extension;
+                InputStream in;
+                try {
+                    in = avatarBlobStore.open(avatar.filePath()).newInputStream();
+                } catch (IOException e) {
+                    logger.warn("Avatar content {} of student ID {} is missing, skipped", avatar.filePath(), avatar.studentId(), e);
+                    continue;
+                }
+                try (in) {
+                    zip.putNextEntry(new ZipEntry(name));
+                    in.transferTo(zip);
+                    zip.closeEntry();
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int writePreviews(Long facultyId, long fromId, long toId, ZipOutputStream zip) throws IOException {
+        int count = 0;
+        try (Stream<AvatarPreviewExport> previews = avatarPreviewRepository.streamForExport(facultyId, fromId, toId)) {
+            Iterator<AvatarPreviewExport> iterator = previews.iterator();
+            while (iterator.hasNext()) {
+                AvatarPreviewExport preview = iterator.next();
+                zip.putNextEntry(new ZipEntry("previews/" + preview.studentId() + "-" + preview.width()
+                        + "." + extensionOf(preview.mediaType())));
+                zip.write(preview.data());
+                zip.closeEntry();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private String extensionOf(String mediaType) {
+        if (mediaType == null) {
+            return "bin";
+        }
+        String subtype = MediaType.parseMediaType(mediaType).getSubtype();
+        return "jpeg".equals(subtype) ? "jpg" : subtype;
+    }
+}
@@ -0,0 +1,8 @@
+package ru.hogwarts.school.service;
+
+/**
+ * Элемент архива, уже записанный во временный файл
+ */
+public record AvatarImportEntry(String name, long studentId, String extension, String mediaType,
+                                AvatarBlobStore.StagedFile staged) {
+}
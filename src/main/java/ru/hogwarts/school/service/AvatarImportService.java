@@ -0,0 +1,259 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import ru.hogwarts.school.dto.AvatarImportReport;
+import ru.hogwarts.school.dto.AvatarImportResult;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Импорт аватаров из ZIP архива, элементы которого названы по id студента (42.png, photos/43.jpg).
+ * Архив читается потоком в одном потоке: каждый элемент сразу пишется во временный файл с подсчетом SHA-256.
+ * Записанные элементы раскладываются по дорожкам по контрольной сумме и отдаются пакетами в общий пул:
+ * пакеты одной дорожки выполняются по очереди, поэтому одинаковое содержимое не вставляется параллельно,
+ * а разные дорожки работают одновременно. Число ожидающих пакетов ограничено, чтобы чтение архива
+ * не опережало запись в базу
+ */
+@Service
+public class AvatarImportService {
+    private static final Pattern ENTRY_NAME = Pattern.compile("(\\d{1,18})\\.(\\w+)");
+
+    private final AvatarService avatarService;
+    private final AvatarBlobStore avatarBlobStore;
+    private final int lanes;
+    private final int batchSize;
+    private final int maxPendingBatches;
+    private final long maxEntrySize;
+    private final ExecutorService executor;
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarImportService.class);
+
+    public AvatarImportService(AvatarService avatarService,
+                               AvatarBlobStore avatarBlobStore,
+                               @Value("${students.avatar.import.threads:4}") int threads,
+                               @Value("${students.avatar.import.batch-size:200}") int batchSize,
+                               @Value("${students.avatar.import.max-pending-batches:8}") int maxPendingBatches,
+                               @Value("${students.avatar.import.max-entry-size:10485760}") long maxEntrySize) {
+        this.avatarService = avatarService;
+        this.avatarBlobStore = avatarBlobStore;
+        this.lanes = threads;
+        this.batchSize = batchSize;
+        this.maxPendingBatches = maxPendingBatches;
+        this.maxEntrySize = maxEntrySize;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "avatar-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public AvatarImportReport importZip(InputStream body) throws IOException {
+        logger.info("Method importZip invoked");
+        long start = System.currentTimeMillis();
+        Map<Integer, AvatarImportResult> results = new ConcurrentSkipListMap<>();
+        Semaphore pendingBatches = new Semaphore(maxPendingBatches);
+        List<CompletableFuture<Void>> laneTails = new ArrayList<>(lanes);
+        List<List<IndexedEntry>> laneBatches = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            laneTails.add(CompletableFuture.completedFuture(null));
+            laneBatches.add(new ArrayList<>(batchSize));
+        }
+        Set<Long> seenStudents = new HashSet<>();
+        int index = 0;
+
+        try (ZipInputStream zip = new ZipInputStream(body)) {
+            ZipEntry zipEntry;
+            while ((zipEntry = nextEntry(zip, index, results)) != null) {
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                int entryIndex = index++;
+                String name = zipEntry.getName();
+                String fileName = name.substring(name.lastIndexOf('/') + 1);
+                Matcher matcher = ENTRY_NAME.matcher(fileName);
+                if (!matcher.matches()) {
+                    results.put(entryIndex, AvatarImportResult.of(name, null, AvatarImportResult.Status.INVALID_NAME));
+                    continue;
+                }
+                long studentId = Long.parseLong(matcher.group(1));
+                MediaType mediaType = MediaTypeFactory.getMediaType(fileName).orElse(MediaType.APPLICATION_OCTET_STREAM);
+                if (!"image".equals(mediaType.getType())) {
+                    results.put(entryIndex, AvatarImportResult.of(name, studentId, AvatarImportResult.Status.UNSUPPORTED_TYPE));
+                    continue;
+                }
+                if (!seenStudents.add(studentId)) {
+                    results.put(entryIndex, AvatarImportResult.of(name, studentId, AvatarImportResult.Status.DUPLICATE_STUDENT));
+                    continue;
+                }
+
+                AvatarBlobStore.StagedFile staged;
+                try {
+                    staged = avatarBlobStore.stage(new SizeLimitedInputStream(StreamUtils.nonClosing(zip), maxEntrySize));
+                } catch (EntryTooLargeException e) {
+                    results.put(entryIndex, AvatarImportResult.of(name, studentId, AvatarImportResult.Status.TOO_LARGE));
+                    continue;
+                }
+                AvatarImportEntry entry = new AvatarImportEntry(name, studentId, matcher.group(2), mediaType.toString(), staged);
+                int lane = Math.floorMod(staged.checksum().hashCode(), lanes);
+                List<IndexedEntry> batch = laneBatches.get(lane);
+                batch.add(new IndexedEntry(entryIndex, entry));
+                if (batch.size() == batchSize) {
+                    submit(lane, batch, laneTails, pendingBatches, results);
+                    laneBatches.set(lane, new ArrayList<>(batchSize));
+                }
+            }
+        } finally {
+            for (int lane = 0; lane < lanes; lane++) {
+                if (!laneBatches.get(lane).isEmpty()) {
+                    submit(lane, laneBatches.get(lane), laneTails, pendingBatches, results);
+                }
+            }
+            CompletableFuture.allOf(laneTails.toArray(CompletableFuture[]::new)).join();
+        }
+
+        List<AvatarImportResult> entries = new ArrayList<>(results.values());
+        Map<AvatarImportResult.Status, Long> summary = entries.stream()
+                .collect(Collectors.groupingBy(AvatarImportResult::status,
+                        () -> new EnumMap<>(AvatarImportResult.Status.class), Collectors.counting()));
+        long duration = System.currentTimeMillis() - start;
+        logger.info("Avatar import of {} entries finished in {} ms: {}", entries.size(), duration, summary);
+        return new AvatarImportReport(duration, summary, entries);
+    }
+
+    /**
+     * Поврежденный архив дальше не читается: ошибка записывается в отчет, уже прочитанные элементы импортируются
+     */
+    private ZipEntry nextEntry(ZipInputStream zip, int index, Map<Integer, AvatarImportResult> results) throws IOException {
+        try {
+            return zip.getNextEntry();
+        } catch (ZipException e) {
+            logger.warn("Avatar archive is corrupted after {} entries", index, e);
+            results.put(index, new AvatarImportResult(null, null, AvatarImportResult.Status.FAILED, e.getMessage()));
+            return null;
+        }
+    }
+
+    private void submit(int lane, List<IndexedEntry> batch, List<CompletableFuture<Void>> laneTails,
+                        Semaphore pendingBatches, Map<Integer, AvatarImportResult> results) throws IOException {
+        try {
+            pendingBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(batch);
+            throw new InterruptedIOException("Avatar import interrupted");
+        }
+        laneTails.set(lane, laneTails.get(lane).thenRunAsync(() -> {
+            try {
+                importBatch(batch, results);
+            } finally {
+                pendingBatches.release();
+            }
+        }, executor));
+    }
+
+    private void importBatch(List<IndexedEntry> batch, Map<Integer, AvatarImportResult> results) {
+        long start = System.currentTimeMillis();
+        try {
+            List<AvatarImportResult> batchResults = avatarService.importAvatars(
+                    batch.stream().map(IndexedEntry::entry).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                results.put(batch.get(i).index(), batchResults.get(i));
+            }
+            logger.debug("Batch of {} avatars imported in {} ms", batch.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Failed to import batch of {} avatars", batch.size(), e);
+            discard(batch);
+            for (IndexedEntry indexed : batch) {
+                results.put(indexed.index(), new AvatarImportResult(indexed.entry().name(), indexed.entry().studentId(),
+                        AvatarImportResult.Status.FAILED, e.getMessage()));
+            }
+        }
+    }
+
+    private void discard(List<IndexedEntry> batch) {
+        for (IndexedEntry indexed : batch) {
+            try {
+                avatarBlobStore.discard(indexed.entry().staged());
+            } catch (IOException e) {
+                logger.warn("Failed to delete staged file {}", indexed.entry().staged().tempFile(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record IndexedEntry(int index, AvatarImportEntry entry) {
+    }
+
+    private static class EntryTooLargeException extends IOException {
+        EntryTooLargeException(long limit) {
+            super("Archive entry exceeds " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Прерывает запись элемента, распакованный размер которого больше лимита
+     */
+    private static class SizeLimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) throws EntryTooLargeException {
+            count += read;
+            if (count > limit) {
+                throw new EntryTooLargeException(limit);
+            }
+        }
+    }
+}
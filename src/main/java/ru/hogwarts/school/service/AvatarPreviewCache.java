@@ -0,0 +1,76 @@
+package ru.hogwarts.school.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.hogwarts.school.dto.CacheStatistics;
+import ru.hogwarts.school.model.AvatarPreview;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Кэш превью по id студента, ограниченный суммарным объемом данных (students.avatar.preview.cache.max-bytes).
+ * Вытеснение W-TinyLFU из Caffeine. Пустые результаты (превью еще генерируются) не кэшируются
+ */
+@Component
+public class AvatarPreviewCache {
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Cache<Long, List<AvatarPreview>> cache;
+    private final long maxBytes;
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarPreviewCache.class);
+
+    public AvatarPreviewCache(@Value("${students.avatar.preview.cache.max-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(AvatarPreviewCache::weigh)
+                .recordStats()
+                .build();
+    }
+
+    public List<AvatarPreview> get(Long studentId, Function<Long, List<AvatarPreview>> loader) {
+        List<AvatarPreview> previews = cache.get(studentId, id -> {
+            List<AvatarPreview> loaded = loader.apply(id);
+            return loaded.isEmpty() ? null : List.copyOf(loaded);
+        });
+        return previews == null ? List.of() : previews;
+    }
+
+    public void invalidate(Long studentId) {
+        logger.debug("Preview cache entry for student ID {} invalidated", studentId);
+        cache.invalidate(studentId);
+    }
+
+    /**
+     * Повторная инвалидация после коммита загрузки: чтение, начатое до коммита, могло положить в кэш старые превью
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAvatarUploaded(AvatarUploadedEvent event) {
+        invalidate(event.studentId());
+    }
+
+    public CacheStatistics getStatistics() {
+        CacheStats stats = cache.stats();
+        long weightedSize = cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new CacheStatistics(stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                stats.evictionWeight(), cache.estimatedSize(), weightedSize, maxBytes);
+    }
+
+    private static int weigh(Long studentId, List<AvatarPreview> previews) {
+        long weight = ENTRY_OVERHEAD;
+        for (AvatarPreview preview : previews) {
+            weight += ENTRY_OVERHEAD + preview.getData().length;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+}
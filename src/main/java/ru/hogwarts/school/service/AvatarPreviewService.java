@@ -0,0 +1,270 @@
+package ru.hogwarts.school.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.exception.ImageTooLargeException;
+import ru.hogwarts.school.model.AvatarPreview;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.storage.AvatarStorage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновая генерация превью аватаров. Загрузка только ставит задачу в ограниченный пул,
+ * исходное изображение декодируется один раз на все размеры из students.avatar.preview.widths.
+ * Размеры читаются из заголовка до декодирования: слишком большие изображения отклоняются,
+ * а большие декодируются с прореживанием, так что память под растр зависит от размера превью, а не исходника.
+ * Содержимое, которое не удалось декодировать, запоминается по контрольной сумме на students.avatar.preview.failure-ttl
+ * и до истечения срока в очередь не ставится
+ */
+@Service
+public class AvatarPreviewService {
+    private final AvatarRepository avatarRepository;
+    private final AvatarPreviewRepository avatarPreviewRepository;
+    private final AvatarStorage avatarStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final List<Integer> widths;
+    private final int defaultWidth;
+    private final long maxPixels;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Cache<String, Boolean> failed;
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarPreviewService.class);
+
+    public AvatarPreviewService(AvatarRepository avatarRepository,
+                                AvatarPreviewRepository avatarPreviewRepository,
+                                AvatarStorage avatarStorage,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${students.avatar.preview.widths:64,100,256}") List<Integer> widths,
+                                @Value("${students.avatar.preview.default-width:100}") int defaultWidth,
+                                @Value("${students.avatar.preview.max-pixels:40000000}") long maxPixels,
+                                @Value("${students.avatar.preview.threads:2}") int threads,
+                                @Value("${students.avatar.preview.queue-capacity:1000}") int queueCapacity,
+                                @Value("${students.avatar.preview.failure-ttl:PT1H}") Duration failureTtl) {
+        this.avatarRepository = avatarRepository;
+        this.avatarPreviewRepository = avatarPreviewRepository;
+        this.avatarStorage = avatarStorage;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.widths = List.copyOf(new TreeSet<>(widths));
+        this.defaultWidth = defaultWidth;
+        this.maxPixels = maxPixels;
+        this.failed = Caffeine.newBuilder()
+                .expireAfterWrite(failureTtl)
+                .maximumSize(10_000)
+                .build();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "avatar-preview-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public List<Integer> getWidths() {
+        return widths;
+    }
+
+    /**
+     * Задача ставится после коммита транзакции загрузки, чтобы генератор видел новую контрольную сумму
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAvatarUploaded(AvatarUploadedEvent event) {
+        schedule(event);
+    }
+
+    public void schedule(AvatarUploadedEvent event) {
+        if (failed.getIfPresent(event.checksum()) != null) {
+            logger.debug("Previews for checksum {} failed recently, generation skipped", event.checksum());
+            return;
+        }
+        if (!inFlight.add(event.checksum())) {
+            logger.debug("Previews for checksum {} are already being generated", event.checksum());
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generateAndStore(event);
+                } catch (IOException | ImageTooLargeException e) {
+                    failed.put(event.checksum(), Boolean.TRUE);
+                    logger.error("Failed to generate previews for student ID {} from {}", event.studentId(), event.filePath(), e);
+                } catch (Exception e) {
+                    logger.error("Failed to generate previews for student ID {} from {}", event.studentId(), event.filePath(), e);
+                } finally {
+                    inFlight.remove(event.checksum());
+                }
+            });
+            logger.debug("Preview generation for student ID {} queued, queue size {}", event.studentId(), executor.getQueue().size());
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(event.checksum());
+            logger.warn("Preview queue is full, previews for student ID {} will be generated on next request", event.studentId());
+        }
+    }
+
+    /**
+     * Наименьшее превью не уже запрошенной ширины, иначе самое большое из имеющихся
+     */
+    public Optional<AvatarPreview> selectPreview(List<AvatarPreview> previews, Integer width) {
+        int requested = width == null ? defaultWidth : width;
+        AvatarPreview largest = null;
+        for (AvatarPreview preview : previews) {
+            if (preview.getWidth() >= requested) {
+                return Optional.of(preview);
+            }
+            largest = preview;
+        }
+        return Optional.ofNullable(largest);
+    }
+
+    private void generateAndStore(AvatarUploadedEvent event) throws IOException {
+        if (avatarPreviewRepository.existsByChecksum(event.checksum())) {
+            logger.debug("Previews for checksum {} already exist", event.checksum());
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<AvatarPreview> previews;
+        try (InputStream in = avatarStorage.open(event.filePath()).newInputStream()) {
+            previews = generatePreviews(in, event.filePath(), event.format(), event.mediaType(), widths);
+        }
+        previews.forEach(preview -> preview.setChecksum(event.checksum()));
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!avatarRepository.existsByChecksum(event.checksum())) {
+                logger.debug("Avatar with checksum {} was replaced, previews discarded", event.checksum());
+                return;
+            }
+            avatarPreviewRepository.saveAll(previews);
+        });
+        logger.debug("{} previews for student ID {} generated in {} ms", previews.size(), event.studentId(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Декодирует изображение один раз и строит превью всех заданных ширин, не увеличивая исходник
+     */
+    public List<AvatarPreview> generatePreviews(Path filePath, String format, String mediaType,
+                                                List<Integer> targetWidths) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(filePath.toFile())) {
+            return generatePreviews(in, filePath.toString(), format, mediaType, targetWidths);
+        }
+    }
+
+    public List<AvatarPreview> generatePreviews(InputStream in, String location, String format, String mediaType,
+                                                List<Integer> targetWidths) throws IOException {
+        try (ImageInputStream imageInput = ImageIO.createImageInputStream(in)) {
+            return generatePreviews(imageInput, location, format, mediaType, targetWidths);
+        }
+    }
+
+    private List<AvatarPreview> generatePreviews(ImageInputStream in, String location, String format, String mediaType,
+                                                 List<Integer> targetWidths) throws IOException {
+        logger.info("Method generatePreviews with location {} and widths {} invoked", location, targetWidths);
+        Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+        if (readers == null || !readers.hasNext()) {
+            logger.error("Failed read image from {}", location);
+            throw new FileNotFoundException("Invalid image file ");
+        }
+        ImageReader reader = readers.next();
+        int sourceWidth;
+        int sourceHeight;
+        BufferedImage image;
+        try {
+            reader.setInput(in, true, true);
+            sourceWidth = reader.getWidth(0);
+            sourceHeight = reader.getHeight(0);
+            if ((long) sourceWidth * sourceHeight > maxPixels) {
+                logger.error("Image {}x{} from {} exceeds {} pixels", sourceWidth, sourceHeight, location, maxPixels);
+                throw new ImageTooLargeException(sourceWidth, sourceHeight, maxPixels);
+            }
+            int largestWidth = targetWidths.stream().mapToInt(Integer::intValue).max().orElse(sourceWidth);
+            int subsampling = subsamplingFactor(sourceWidth, largestWidth);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            image = reader.read(0, param);
+            logger.debug("Image {}x{} read from {} with subsampling {} as {}x{}", sourceWidth, sourceHeight, location,
+                    subsampling, image.getWidth(), image.getHeight());
+        } finally {
+            reader.dispose();
+        }
+
+        List<AvatarPreview> previews = new ArrayList<>(targetWidths.size());
+        Set<Integer> produced = new TreeSet<>();
+        for (int targetWidth : targetWidths) {
+            int width = Math.min(targetWidth, sourceWidth);
+            if (!produced.add(width)) {
+                continue;
+            }
+            int height = Math.max(1, (int) ((double) sourceHeight / sourceWidth * width));
+            byte[] data = encode(scale(image, width, height, format), format);
+            previews.add(new AvatarPreview(null, width, height, mediaType, data));
+            logger.debug("Preview {}x{} created, size = {} bytes", width, height, data.length);
+        }
+        return previews;
+    }
+
+    /**
+     * Прореживание оставляет не меньше двух исходных пикселей на пиксель самого большого превью,
+     * чтобы последующее билинейное масштабирование сгладило ступеньки
+     */
+    static int subsamplingFactor(int sourceWidth, int largestWidth) {
+        return Math.max(1, sourceWidth / (2 * Math.max(1, largestWidth)));
+    }
+
+    private BufferedImage scale(BufferedImage image, int width, int height, String format) {
+        boolean alpha = image.getColorModel().hasAlpha() && !isJpeg(format);
+        BufferedImage preview = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics2D = preview.createGraphics();
+        graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics2D.drawImage(image, 0, 0, width, height, null);
+        graphics2D.dispose();
+        return preview;
+    }
+
+    private byte[] encode(BufferedImage preview, String format) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            if (!ImageIO.write(preview, format, baos)) {
+                logger.warn("Failed to write preview image as {}", format);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    private boolean isJpeg(String format) {
+        return "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
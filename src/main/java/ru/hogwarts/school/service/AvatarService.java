@@ -3,43 +3,77 @@ package ru.hogwarts.school.service;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.dto.AvatarFileRef;
+import ru.hogwarts.school.dto.AvatarImportResult;
+import ru.hogwarts.school.dto.AvatarMetadata;
+import ru.hogwarts.school.dto.CacheStatistics;
 import ru.hogwarts.school.exception.ObjectNotFoundException;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarPreview;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
 import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.storage.AvatarContent;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
 @Service
 @Transactional
 public class AvatarService implements ExceptionService {
-
-    @Value("${students.avatar.dir.path}")
-    private String avatarsDir;
+    private static final String UPDATE_AVATAR_SQL = "update avatar set file_path = ?, file_size = ?, media_type = ?, " +
+            "checksum = ?, data = null where student_id = ?";
 
     private final StudentService studentService;
     private final AvatarRepository avatarRepository;
+    private final AvatarPreviewRepository avatarPreviewRepository;
+    private final AvatarPreviewService avatarPreviewService;
+    private final AvatarPreviewCache avatarPreviewCache;
+    private final AvatarBlobStore avatarBlobStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final JdbcTemplate jdbcTemplate;
 
     private static final Logger logger = LoggerFactory.getLogger(AvatarService.class);
 
-    public AvatarService(StudentService studentService, AvatarRepository avatarRepository) {
+    public AvatarService(StudentService studentService,
+                         AvatarRepository avatarRepository,
+                         AvatarPreviewRepository avatarPreviewRepository,
+                         AvatarPreviewService avatarPreviewService,
+                         AvatarPreviewCache avatarPreviewCache,
+                         AvatarBlobStore avatarBlobStore,
+                         ApplicationEventPublisher eventPublisher,
+                         JdbcTemplate jdbcTemplate) {
         this.studentService = studentService;
         this.avatarRepository = avatarRepository;
+        this.avatarPreviewRepository = avatarPreviewRepository;
+        this.avatarPreviewService = avatarPreviewService;
+        this.avatarPreviewCache = avatarPreviewCache;
+        this.avatarBlobStore = avatarBlobStore;
+        this.eventPublisher = eventPublisher;
+        this.jdbcTemplate = jdbcTemplate;
     }
 
+    /**
+     * Загрузка идет потоком: содержимое пишется во временный файл, по пути считаются размер и SHA-256.
+     * Если такое содержимое уже хранится, временный файл удаляется и используется существующий.
+     * Перед чтением прежнего аватара строка студента блокируется, поэтому параллельные загрузки для одного
+     * студента выполняются по очереди: вторая видит аватар первой, обновляет его и освобождает его содержимое.
+     * Уникальность avatar.student_id дополнительно гарантируется ограничением в базе
+     */
     public void uploadAvatar(Long studentId, MultipartFile avatarFile) throws IOException {
         logger.info("Method uploadAvatar with student iD {} and avatar file {} invoked", studentId, avatarFile.getOriginalFilename());
         Student student = studentService.findStudent(studentId);
@@ -49,20 +83,106 @@ public class AvatarService implements ExceptionService {
             throw new ObjectNotFoundException(studentId, Avatar.class);
         }
         String extension = getExtension(fileName);
-        Path filePath = Path.of(avatarsDir, studentId + "." + extension);
-        Files.createDirectories(filePath.getParent());
 
-        Files.write(filePath, avatarFile.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        AvatarBlobStore.StagedFile staged;
+        try (InputStream in = avatarFile.getInputStream()) {
+            staged = avatarBlobStore.stage(in);
+        }
+        logger.debug("Avatar file {} staged: {} bytes, checksum {}", fileName, staged.size(), staged.checksum());
+
+        studentService.lockExistingIds(List.of(studentId));
+        Optional<AvatarFileRef> previous = avatarRepository.findFileRefByStudentId(studentId);
+        if (previous.filter(ref -> staged.checksum().equals(ref.checksum())).isPresent()) {
+            avatarBlobStore.discard(staged);
+            logger.debug("Student ID {} uploaded the same avatar again, nothing changed", studentId);
+            return;
+        }
+        String filePath = avatarBlobStore.acquire(staged, extension, avatarFile.getContentType());
+
+        avatarPreviewCache.invalidate(studentId);
+        int updated = avatarRepository.updateByStudentId(studentId, filePath, staged.size(),
+                avatarFile.getContentType(), staged.checksum());
+        if (updated == 0) {
+            Avatar avatar = new Avatar();
+            avatar.setFilePath(filePath);
+            avatar.setStudent(student);
+            avatar.setMediaType(avatarFile.getContentType());
+            avatar.setFileSize(staged.size());
+            avatar.setChecksum(staged.checksum());
+            avatarRepository.save(avatar);
+            logger.debug("Avatar {} successful upload", avatar);
+        } else {
+            logger.debug("Avatar of student ID {} successful replaced", studentId);
+        }
+        previous.ifPresent(avatarBlobStore::release);
+        eventPublisher.publishEvent(new AvatarUploadedEvent(studentId, staged.checksum(), filePath,
+                avatarFile.getContentType(), getExtension(filePath)));
+    }
+
+    /**
+     * Импортирует пакет элементов архива в одной транзакции: существование студентов и прежние аватары
+     * проверяются одним запросом на пакет, обновления уходят пакетом JDBC, новые аватары вставляются
+     * пакетом Hibernate (hibernate.jdbc.batch_size)
+     * @return результаты в порядке элементов пакета
+     */
+    @Transactional(rollbackOn = Exception.class)
+    public List<AvatarImportResult> importAvatars(List<AvatarImportEntry> entries) throws IOException {
+        logger.info("Method importAvatars with {} entries invoked", entries.size());
+        Set<Long> studentIds = entries.stream().map(AvatarImportEntry::studentId).collect(Collectors.toSet());
+        Set<Long> existingIds = studentService.lockExistingIds(studentIds);
+        Map<Long, AvatarFileRef> previous = avatarRepository.findFileRefsByStudentIds(existingIds).stream()
+                .collect(Collectors.toMap(AvatarFileRef::studentId, Function.identity()));
 
-        Avatar avatar = findAvatar(studentId);
-        avatar.setFilePath(filePath.toString());
-        avatar.setStudent(student);
-        avatar.setMediaType(avatarFile.getContentType());
-        avatar.setFileSize(avatarFile.getSize());
-        avatar.setData(avatarFile.getBytes());
+        List<AvatarImportResult> results = new ArrayList<>(entries.size());
+        List<AvatarImportEntry> accepted = new ArrayList<>(entries.size());
+        for (AvatarImportEntry entry : entries) {
+            AvatarFileRef ref = previous.get(entry.studentId());
+            if (!existingIds.contains(entry.studentId())) {
+                avatarBlobStore.discard(entry.staged());
+                results.add(AvatarImportResult.of(entry.name(), entry.studentId(), AvatarImportResult.Status.STUDENT_NOT_FOUND));
+            } else if (ref != null && entry.staged().checksum().equals(ref.checksum())) {
+                avatarBlobStore.discard(entry.staged());
+                results.add(AvatarImportResult.of(entry.name(), entry.studentId(), AvatarImportResult.Status.UNCHANGED));
+            } else {
+                accepted.add(entry);
+                results.add(AvatarImportResult.of(entry.name(), entry.studentId(), AvatarImportResult.Status.IMPORTED));
+            }
+        }
 
-        logger.debug("Avatar {} successful upload", avatar);
-        avatarRepository.save(avatar);
+        Map<String, String> locations = avatarBlobStore.acquireAll(accepted);
+        List<Object[]> updates = new ArrayList<>();
+        List<Avatar> inserts = new ArrayList<>();
+        for (AvatarImportEntry entry : accepted) {
+            String filePath = locations.get(entry.staged().checksum());
+            avatarPreviewCache.invalidate(entry.studentId());
+            if (previous.containsKey(entry.studentId())) {
+                updates.add(new Object[]{filePath, entry.staged().size(), entry.mediaType(),
+                        entry.staged().checksum(), entry.studentId()});
+            } else {
+                Avatar avatar = new Avatar();
+                avatar.setFilePath(filePath);
+                avatar.setStudent(studentService.getReference(entry.studentId()));
+                avatar.setMediaType(entry.mediaType());
+                avatar.setFileSize(entry.staged().size());
+                avatar.setChecksum(entry.staged().checksum());
+                inserts.add(avatar);
+            }
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_AVATAR_SQL, updates);
+        }
+        avatarRepository.saveAll(inserts);
+        for (AvatarImportEntry entry : accepted) {
+            AvatarFileRef ref = previous.get(entry.studentId());
+            if (ref != null) {
+                avatarBlobStore.release(ref);
+            }
+            String filePath = locations.get(entry.staged().checksum());
+            eventPublisher.publishEvent(new AvatarUploadedEvent(entry.studentId(), entry.staged().checksum(), filePath,
+                    entry.mediaType(), getExtension(filePath)));
+        }
+        logger.debug("{} avatars imported: {} updated, {} inserted", accepted.size(), updates.size(), inserts.size());
+        return results;
     }
 
     public String getExtension(String fileName) {
@@ -88,46 +208,74 @@ public class AvatarService implements ExceptionService {
         return avatarOpt.orElseGet(Avatar::new);
     }
 
-    public byte[] generateDataForDataBase(Path filePath) throws IOException {
-        logger.info("Method generateDataForDataBase with file path {} invoked", filePath);
-        BufferedImage image = ImageIO.read(filePath.toFile());
-        if (image == null) {
-            logger.error("Failed read image from {}", filePath);
-            throw new FileNotFoundException("Invalid image file ");
+    /**
+     * В отличие от findAvatar не создает пустой аватар, а выбрасывает исключение.
+     * Для аватаров, загруженных до появления контрольной суммы, она вычисляется по файлу и сохраняется
+     */
+    public Avatar getAvatar(Long studentId) throws IOException {
+        logger.info("Method getAvatar with student ID {} invoked", studentId);
+        Avatar avatar = getEntityOrThrow(avatarRepository.findByStudentId(studentId), studentId, Avatar.class);
+        if (avatar.getChecksum() == null) {
+            avatar.setChecksum(avatarBlobStore.checksumOf(openContent(avatar)));
+            logger.debug("Checksum {} calculated for avatar of student ID {}", avatar.getChecksum(), studentId);
         }
-        logger.debug("Image read successfully from {}", filePath);
-
-        int width = 100;
-        int height = (int) ((double) image.getHeight() / image.getWidth() * width);
-        logger.debug("Calculated preview size: width = {}, height = {}", width, height);
-
-        BufferedImage preview = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics2D = preview.createGraphics();
-        graphics2D.drawImage(image, 0, 0, 100, height, null);
-        graphics2D.dispose();
-        logger.debug("Preview image created");
-
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            String extension = getExtension(filePath.getFileName().toString());
-            logger.info("Writing preview image as {}", extension);
-            boolean writeSuccess =  ImageIO.write(preview, extension, baos);
-            if (writeSuccess) {
-                logger.info("Preview image successfully written as {}", extension);
-            } else {
-                logger.warn("Failed to write preview image as {}", extension);
-            }
+        return avatar;
+    }
 
-            logger.debug("Preview image successfully written, size = {} bytes", baos.size());
-            return baos.toByteArray();
+    public AvatarContent openContent(Avatar avatar) throws IOException {
+        return avatarBlobStore.open(avatar.getFilePath());
+    }
+
+    /**
+     * Превью ширины не меньше запрошенной (по умолчанию students.avatar.preview.default-width).
+     * Повторные запросы обслуживаются из AvatarPreviewCache без обращения к базе
+     */
+    public Optional<AvatarPreview> findPreview(Long studentId, Integer width) {
+        logger.info("Method findPreview with student ID {} and width {} invoked", studentId, width);
+        List<AvatarPreview> previews = avatarPreviewCache.get(studentId, avatarPreviewRepository::findByStudentId);
+        Optional<AvatarPreview> preview = avatarPreviewService.selectPreview(previews, width);
+        if (preview.isEmpty()) {
+            logger.debug("No preview found for student ID {}", studentId);
         }
+        return preview;
+    }
+
+    /**
+     * Ставит генерацию превью для аватара, у которого их еще нет (загружен до появления фоновой генерации
+     * или задача была отброшена при переполнении очереди)
+     */
+    public void schedulePreviews(Avatar avatar) {
+        logger.info("Method schedulePreviews for avatar {} invoked", avatar.getId());
+        avatarPreviewService.schedule(new AvatarUploadedEvent(avatar.getStudent().getId(), avatar.getChecksum(),
+                avatar.getFilePath(), avatar.getMediaType(), getExtension(avatar.getFilePath())));
     }
 
-    public List<Avatar> findAllAvatars(Integer pageNumber, Integer pageSize) {
+    public CacheStatistics getPreviewCacheStatistics() {
+        logger.info("Method getPreviewCacheStatistics invoked");
+        return avatarPreviewCache.getStatistics();
+    }
+
+    public byte[] generateDataForDataBase(Path filePath) throws IOException {
+        logger.info("Method generateDataForDataBase with file path {} invoked", filePath);
+        String extension = getExtension(filePath.getFileName().toString());
+        return avatarPreviewService.generatePreviews(filePath, extension, null, List.of(100))
+                .get(0)
+                .getData();
+    }
+
+    public List<AvatarMetadata> findAllAvatars(Integer pageNumber, Integer pageSize) {
         logger.info("Method findAllAvatars with page number {} and page size {} invoked", pageNumber, pageSize);
         PageRequest pageRequest = PageRequest.of(pageNumber - 1, pageSize);
-        List<Avatar> avatars = avatarRepository.findAll(pageRequest).getContent();
+        List<AvatarMetadata> avatars = avatarRepository.findMetadata(pageRequest);
         logger.debug("Number of all avatars with page number {} " +
                 "and page size {} have been found successfully: {}", pageNumber, pageSize, avatars.size());
         return avatars;
     }
+
+    public List<AvatarMetadata> findAvatarsAfter(long afterId, int pageSize) {
+        logger.info("Method findAvatarsAfter with id {} and page size {} invoked", afterId, pageSize);
+        List<AvatarMetadata> avatars = avatarRepository.findMetadataAfter(afterId, Limit.of(pageSize));
+        logger.debug("Number of avatars after id {} found: {}", afterId, avatars.size());
+        return avatars;
+    }
 }
@@ -0,0 +1,7 @@
+package ru.hogwarts.school.service;
+
+/**
+ * Публикуется после записи файла аватара, format - расширение файла, в котором сохраняются превью
+ */
+public record AvatarUploadedEvent(Long studentId, String checksum, String filePath, String mediaType, String format) {
+}
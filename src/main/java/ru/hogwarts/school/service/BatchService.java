@@ -0,0 +1,263 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.dto.BatchOperation;
+import ru.hogwarts.school.dto.BatchOperation.Action;
+import ru.hogwarts.school.dto.BatchOperation.Target;
+import ru.hogwarts.school.dto.BatchOperationResult;
+import ru.hogwarts.school.dto.BatchOperationResult.Status;
+import ru.hogwarts.school.event.StudentEventBridge;
+import ru.hogwarts.school.exception.InvalidBatchException;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Пакет операций над студентами и факультетами в одной транзакции. Операции выполняются в порядке запроса,
+ * подряд идущие операции одного вида над одной сущностью объединяются в набор: вставки и изменения - пакетами JDBC,
+ * удаления - одним delete ... where id in. Поэтому изменение после удаления того же id вернет NOT_FOUND.
+ * Некорректные операции и операции с несуществующими id отмечаются в результате и пропускаются,
+ * ошибка базы откатывает весь пакет. Изменения идут в обход Hibernate, поэтому после коммита
+ * производные данные студентов перестраиваются
+ */
+@Service
+public class BatchService {
+    private static final String INSERT_STUDENT_SQL = "insert into student (name, age, faculty_id) values (?, ?, ?)";
+    private static final String INSERT_FACULTY_SQL = "insert into faculty (name, color) values (?, ?)";
+    private static final String UPDATE_STUDENT_SQL = "update student set name = ?, age = ?, faculty_id = ? where id = ?";
+    private static final String UPDATE_FACULTY_SQL = "update faculty set name = ?, color = ? where id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final StudentEventBridge studentEventBridge;
+    private final FacultyNameLengths facultyNameLengths;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxOperations;
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchService.class);
+
+    public BatchService(JdbcTemplate jdbcTemplate,
+                        NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                        StudentEventBridge studentEventBridge,
+                        FacultyNameLengths facultyNameLengths,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${students.batch.max-operations:1000}") int maxOperations) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.studentEventBridge = studentEventBridge;
+        this.facultyNameLengths = facultyNameLengths;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxOperations = maxOperations;
+    }
+
+    public List<BatchOperationResult> execute(List<BatchOperation> operations) {
+        logger.info("Method execute with {} operations invoked", operations == null ? 0 : operations.size());
+        if (operations == null || operations.isEmpty()) {
+            throw new InvalidBatchException("Пакет не содержит операций");
+        }
+        if (operations.size() > maxOperations) {
+            throw new InvalidBatchException("Пакет содержит больше " + maxOperations + " операций");
+        }
+        long start = System.currentTimeMillis();
+        BatchOperationResult[] results = new BatchOperationResult[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            String error = validate(operations.get(i));
+            if (error != null) {
+                results[i] = new BatchOperationResult(i, Status.INVALID, operations.get(i) == null ? null : operations.get(i).id(), error);
+            }
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (List<Integer> run : runs(operations, results)) {
+                BatchOperation first = operations.get(run.get(0));
+                List<Integer> indexes = first.target() == Target.STUDENT && first.action() != Action.DELETE
+                        ? rejectMissingFaculties(operations, results, run)
+                        : run;
+                if (indexes.isEmpty()) {
+                    continue;
+                }
+                switch (first.action()) {
+                    case CREATE -> insert(operations, results, indexes, first.target());
+                    case UPDATE -> update(operations, results, indexes, first.target());
+                    case DELETE -> delete(operations, results, indexes, first.target());
+                }
+            }
+        });
+
+        boolean changed = Arrays.stream(results).anyMatch(result -> result.status() == Status.CREATED
+                || result.status() == Status.UPDATED || result.status() == Status.DELETED);
+        if (changed) {
+            studentEventBridge.publishReloadRequired();
+            facultyNameLengths.reset();
+        }
+        logger.debug("Batch of {} operations executed in {} ms", operations.size(), System.currentTimeMillis() - start);
+        return Arrays.asList(results);
+    }
+
+    private String validate(BatchOperation operation) {
+        if (operation == null || operation.action() == null || operation.target() == null) {
+            return "Не указаны action и target";
+        }
+        if (operation.action() != Action.CREATE && operation.id() == null) {
+            return "Для " + operation.action() + " нужен id";
+        }
+        if (operation.action() == Action.DELETE) {
+            return null;
+        }
+        if (operation.name() == null || operation.name().isBlank()) {
+            return "Название не может быть пустым";
+        }
+        if (operation.target() == Target.STUDENT && (operation.age() == null || operation.age() < 0)) {
+            return "Возраст должен быть неотрицательным числом";
+        }
+        return null;
+    }
+
+    /**
+     * Корректные операции, разбитые на наборы подряд идущих операций одного вида над одной сущностью.
+     * Некорректные операции пропускаются и набор не прерывают
+     */
+    private List<List<Integer>> runs(List<BatchOperation> operations, BatchOperationResult[] results) {
+        List<List<Integer>> runs = new ArrayList<>();
+        List<Integer> run = new ArrayList<>();
+        BatchOperation previous = null;
+        for (int i = 0; i < operations.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            BatchOperation operation = operations.get(i);
+            if (previous != null && (operation.action() != previous.action() || operation.target() != previous.target())) {
+                runs.add(run);
+                run = new ArrayList<>();
+            }
+            run.add(i);
+            previous = operation;
+        }
+        if (!run.isEmpty()) {
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    /**
+     * Факультеты, на которые ссылаются студенты набора, проверяются одним запросом перед его выполнением,
+     * так что факультет, удаленный раньше в этом же пакете, уже не найдется
+     * @return операции набора, прошедшие проверку
+     */
+    private List<Integer> rejectMissingFaculties(List<BatchOperation> operations, BatchOperationResult[] results,
+                                                 List<Integer> run) {
+        Set<Long> facultyIds = new HashSet<>();
+        run.stream().map(i -> operations.get(i).facultyId()).filter(Objects::nonNull).forEach(facultyIds::add);
+        if (facultyIds.isEmpty()) {
+            return run;
+        }
+        Set<Long> existing = new HashSet<>(namedParameterJdbcTemplate.queryForList(
+                "select id from faculty where id in (:ids)", Map.of("ids", facultyIds), Long.class));
+        List<Integer> accepted = new ArrayList<>(run.size());
+        for (int i : run) {
+            Long facultyId = operations.get(i).facultyId();
+            if (facultyId != null && !existing.contains(facultyId)) {
+                results[i] = new BatchOperationResult(i, Status.INVALID, operations.get(i).id(),
+                        "Факультет " + facultyId + " не найден");
+            } else {
+                accepted.add(i);
+            }
+        }
+        return accepted;
+    }
+
+    private void insert(List<BatchOperation> operations, BatchOperationResult[] results, List<Integer> indexes, Target target) {
+        GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+        String sql = target == Target.STUDENT ? INSERT_STUDENT_SQL : INSERT_FACULTY_SQL;
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS),
+                setter(operations, indexes, target, false), keyHolder);
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int k = 0; k < indexes.size(); k++) {
+            int i = indexes.get(k);
+            Long id = k < keys.size() ? generatedId(keys.get(k)) : null;
+            results[i] = BatchOperationResult.of(i, Status.CREATED, id);
+        }
+    }
+
+    private void update(List<BatchOperation> operations, BatchOperationResult[] results, List<Integer> indexes, Target target) {
+        String sql = target == Target.STUDENT ? UPDATE_STUDENT_SQL : UPDATE_FACULTY_SQL;
+        int[] counts = jdbcTemplate.batchUpdate(sql, setter(operations, indexes, target, true));
+        for (int k = 0; k < indexes.size(); k++) {
+            int i = indexes.get(k);
+            boolean updated = counts[k] > 0 || counts[k] == Statement.SUCCESS_NO_INFO;
+            results[i] = BatchOperationResult.of(i, updated ? Status.UPDATED : Status.NOT_FOUND, operations.get(i).id());
+        }
+    }
+
+    /**
+     * Удаление факультета, как и каскад в Faculty, удаляет и его студентов
+     */
+    private void delete(List<BatchOperation> operations, BatchOperationResult[] results, List<Integer> indexes, Target target) {
+        Set<Long> ids = new HashSet<>();
+        indexes.forEach(i -> ids.add(operations.get(i).id()));
+        Map<String, Object> parameters = Map.of("ids", ids);
+        String table = target == Target.STUDENT ? "student" : "faculty";
+        Set<Long> existing = new HashSet<>(namedParameterJdbcTemplate.queryForList(
+                "select id from " + table + " where id in (:ids)", parameters, Long.class));
+        if (!existing.isEmpty()) {
+            Map<String, Object> existingParameters = Map.of("ids", existing);
+            if (target == Target.FACULTY) {
+                namedParameterJdbcTemplate.update("delete from student where faculty_id in (:ids)", existingParameters);
+            }
+            namedParameterJdbcTemplate.update("delete from " + table + " where id in (:ids)", existingParameters);
+        }
+        for (int i : indexes) {
+            Long id = operations.get(i).id();
+            results[i] = BatchOperationResult.of(i, existing.contains(id) ? Status.DELETED : Status.NOT_FOUND, id);
+        }
+    }
+
+    private BatchPreparedStatementSetter setter(List<BatchOperation> operations, List<Integer> indexes,
+                                                Target target, boolean withId) {
+        return new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int k) throws SQLException {
+                BatchOperation operation = operations.get(indexes.get(k));
+                int parameter = 1;
+                statement.setString(parameter++, operation.name().trim());
+                if (target == Target.STUDENT) {
+                    statement.setInt(parameter++, operation.age());
+                    statement.setObject(parameter++, operation.facultyId(), Types.BIGINT);
+                } else {
+                    statement.setString(parameter++, operation.color());
+                }
+                if (withId) {
+                    statement.setLong(parameter, operation.id());
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return indexes.size();
+            }
+        };
+    }
+
+    private Long generatedId(Map<String, Object> keys) {
+        Object id = keys.size() == 1 ? keys.values().iterator().next() : keys.getOrDefault("id", keys.get("ID"));
+        return id instanceof Number number ? number.longValue() : null;
+    }
+}
@@ -1,5 +1,6 @@
 package ru.hogwarts.school.service;
 
+import ru.hogwarts.school.exception.InvalidPageException;
 import ru.hogwarts.school.exception.InvalidSymbolException;
 import ru.hogwarts.school.exception.ObjectNotFoundException;
 
@@ -17,6 +18,22 @@ public interface ExceptionService {
         return entity;
     }
 
+    default void validatePage(int page, int size) {
+        if (page < 1 || size < 1) {
+            throw new InvalidPageException(page, size);
+        }
+    }
+
+    default void validatePrefix(String prefix) {
+        if (prefix == null || prefix.isBlank()) {
+            throw new InvalidSymbolException("Префикс не может быть пустым");
+        }
+
+        if (prefix.length() > 100) {
+            throw new InvalidSymbolException("Префикс должен быть не длиннее 100 символов");
+        }
+    }
+
     default void validateSymbol(String symbol) {
         if (symbol == null) {
             throw new InvalidSymbolException("Символ не может быть null");
@@ -0,0 +1,94 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.FacultyName;
+import ru.hogwarts.school.dto.FacultyNameStatistics;
+import ru.hogwarts.school.repository.FacultyRepository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Названия факультетов, сгруппированные по длине, для самого длинного и короткого названия и распределения длин.
+ * Загружаются при первом обращении одним запросом по таблице faculty, дальше обновляются сервисом
+ * при создании, изменении и удалении факультета. После изменений в обход сервиса сбрасываются
+ * и загружаются заново. При равной длине берется факультет с меньшим id
+ */
+@Component
+public class FacultyNameLengths {
+    private final FacultyRepository facultyRepository;
+    private final TreeMap<Integer, TreeMap<Long, String>> namesByLength = new TreeMap<>();
+    private final Map<Long, Integer> lengthById = new HashMap<>();
+    private boolean loaded;
+
+    private static final Logger logger = LoggerFactory.getLogger(FacultyNameLengths.class);
+
+    public FacultyNameLengths(FacultyRepository facultyRepository) {
+        this.facultyRepository = facultyRepository;
+    }
+
+    public synchronized FacultyNameStatistics snapshot() {
+        load();
+        TreeMap<Integer, Integer> distribution = new TreeMap<>();
+        namesByLength.forEach((length, names) -> distribution.put(length, names.size()));
+        return new FacultyNameStatistics(
+                namesByLength.isEmpty() ? null : namesByLength.lastEntry().getValue().firstEntry().getValue(),
+                namesByLength.isEmpty() ? null : namesByLength.firstEntry().getValue().firstEntry().getValue(),
+                lengthById.size(),
+                distribution);
+    }
+
+    /**
+     * Факультет сохранен: название добавляется или заменяется, факультет без названия не учитывается
+     */
+    public synchronized void onFacultySaved(Long id, String name) {
+        if (!loaded || id == null) {
+            return;
+        }
+        remove(id);
+        if (name != null) {
+            lengthById.put(id, name.length());
+            namesByLength.computeIfAbsent(name.length(), length -> new TreeMap<>()).put(id, name);
+        }
+    }
+
+    public synchronized void onFacultyRemoved(long id) {
+        if (loaded) {
+            remove(id);
+        }
+    }
+
+    public synchronized void reset() {
+        loaded = false;
+        namesByLength.clear();
+        lengthById.clear();
+    }
+
+    private void remove(long id) {
+        Integer length = lengthById.remove(id);
+        if (length == null) {
+            return;
+        }
+        TreeMap<Long, String> names = namesByLength.get(length);
+        names.remove(id);
+        if (names.isEmpty()) {
+            namesByLength.remove(length);
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        for (FacultyName faculty : facultyRepository.findNamesOrderByLength()) {
+            lengthById.put(faculty.id(), faculty.name().length());
+            namesByLength.computeIfAbsent(faculty.name().length(), length -> new TreeMap<>()).put(faculty.id(), faculty.name());
+        }
+        loaded = true;
+        logger.debug("Names of {} faculties loaded in {} ms", lengthById.size(), System.currentTimeMillis() - start);
+    }
+}
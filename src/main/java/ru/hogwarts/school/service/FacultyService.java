@@ -2,30 +2,57 @@ package ru.hogwarts.school.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import ru.hogwarts.school.cache.EntityCache;
+import ru.hogwarts.school.dto.EntityCacheStatistics;
+import ru.hogwarts.school.dto.FacultyNameStatistics;
+import ru.hogwarts.school.dto.KeysetPage;
 import ru.hogwarts.school.exception.NoFacultyNameException;
 import ru.hogwarts.school.exception.ObjectNotFoundException;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
 
 import java.util.*;
 
 @Service
 public class FacultyService implements ExceptionService {
     private final FacultyRepository facultyRepository;
+    private final StudentRepository studentRepository;
+    private final EntityCache entityCache;
+    private final FacultyNameLengths facultyNameLengths;
 
     private static final Logger logger = LoggerFactory.getLogger(FacultyService.class);
 
     @Autowired
-    public FacultyService(FacultyRepository facultyRepository) {
+    public FacultyService(FacultyRepository facultyRepository,
+                          StudentRepository studentRepository,
+                          EntityCache entityCache,
+                          FacultyNameLengths facultyNameLengths) {
         this.facultyRepository = facultyRepository;
+        this.studentRepository = studentRepository;
+        this.entityCache = entityCache;
+        this.facultyNameLengths = facultyNameLengths;
     }
 
+    /**
+     * Нового id нет ни в одной записи кэша сущностей, поэтому кэш не сбрасывается. Если передан id,
+     * save обновляет существующий факультет, и кэш сбрасывается как при изменении
+     */
     public Faculty createFaculty(Faculty faculty) {
         logger.info("Was invoked method for create faculty");
         logger.debug("A {} was created", faculty);
-        return facultyRepository.save(faculty);
+        long requestedId = faculty.getId();
+        Faculty savedFaculty = facultyRepository.save(faculty);
+        if (requestedId != 0) {
+            entityCache.invalidateFaculty(requestedId);
+        }
+        facultyNameLengths.onFacultySaved(savedFaculty.getId(), savedFaculty.getName());
+        return savedFaculty;
     }
 
     public Faculty createFacultyWithParameters(String name, String color) {
@@ -34,12 +61,23 @@ public class FacultyService implements ExceptionService {
         newFaculty.setName(name);
         newFaculty.setColor(color);
         logger.debug("A {} was created with this {} and {}", newFaculty, name, color);
-        return facultyRepository.save(newFaculty);
+        Faculty savedFaculty = facultyRepository.save(newFaculty);
+        facultyNameLengths.onFacultySaved(savedFaculty.getId(), savedFaculty.getName());
+        return savedFaculty;
     }
 
     public Faculty findFaculties(long id) {
-        logger.info("Method findFaculties with iD {} invoked", id);
-        Optional<Faculty> optionalFaculty = facultyRepository.findById(id);
+        return findFaculties(id, false);
+    }
+
+    /**
+     * @param includeStudents загрузить студентов тем же запросом, такой факультет не кэшируется
+     */
+    public Faculty findFaculties(long id, boolean includeStudents) {
+        logger.info("Method findFaculties with iD {} and students included {} invoked", id, includeStudents);
+        Optional<Faculty> optionalFaculty = includeStudents
+                ? facultyRepository.findWithStudentsById(id)
+                : Optional.ofNullable(entityCache.getFaculty(id, facultyId -> facultyRepository.findById(facultyId).orElse(null)));
         if (optionalFaculty.isPresent()) {
             logger.debug("Found faculty: {}", optionalFaculty.get());
         } else {
@@ -48,9 +86,38 @@ public class FacultyService implements ExceptionService {
         return getEntityOrThrow(optionalFaculty, id, Faculty.class);
     }
 
+    /**
+     * Студенты факультета: уже загруженный список берется как есть, иначе студенты читаются одним запросом
+     * по faculty_id без загрузки коллекции
+     */
+    public Collection<Student> getStudentsOfFaculty(long id) {
+        logger.info("Method getStudentsOfFaculty with iD {} invoked", id);
+        Faculty faculty = findFaculties(id);
+        if (Hibernate.isInitialized(faculty.getStudents())) {
+            return faculty.getStudents();
+        }
+        List<Student> students = studentRepository.findByFacultyId(id);
+        logger.debug("Number of students of faculty {} found: {}", id, students.size());
+        return students;
+    }
+
+    /**
+     * Факультет студента со списком студентов: если список не загружен, факультет читается заново вместе с ним
+     */
+    public Faculty withStudents(Faculty faculty) {
+        if (faculty == null || Hibernate.isInitialized(faculty.getStudents())) {
+            return faculty;
+        }
+        return findFaculties(faculty.getId(), true);
+    }
+
     public Faculty editFaculty(Faculty faculty) {
         logger.info("Method editFaculty with iD {} invoked", faculty.getId());
         Faculty savedFaculty = facultyRepository.save(faculty);
+        entityCache.invalidateFaculty(faculty.getId());
+        if (savedFaculty != null) {
+            facultyNameLengths.onFacultySaved(savedFaculty.getId(), savedFaculty.getName());
+        }
         logger.debug("Faculty after save: {}", savedFaculty);
         return checkNotNull(savedFaculty, faculty, Faculty.class);
     }
@@ -63,11 +130,17 @@ public class FacultyService implements ExceptionService {
         }
         logger.debug("Faculty with ID {} has been removed", id);
         facultyRepository.deleteById(id);
+        entityCache.invalidateFaculty(id);
+        facultyNameLengths.onFacultyRemoved(id);
     }
 
     public Collection<Faculty> getAllFaculties() {
-        logger.info("Method getAllFaculties invoked");
-        Collection<Faculty> faculties = facultyRepository.findAll();
+        return getAllFaculties(false);
+    }
+
+    public Collection<Faculty> getAllFaculties(boolean includeStudents) {
+        logger.info("Method getAllFaculties with students included {} invoked", includeStudents);
+        Collection<Faculty> faculties = includeStudents ? facultyRepository.findAllWithStudents() : facultyRepository.findAll();
         if (faculties.isEmpty()) {
             logger.warn("No faculties found");
         }
@@ -75,9 +148,47 @@ public class FacultyService implements ExceptionService {
         return faculties;
     }
 
+    public enum SortKey {
+        ID,
+        NAME
+    }
+
+    /**
+     * Страница факультетов по ключу сортировки и id
+     * @param cursor nextCursor предыдущей страницы, null - первая страница
+     */
+    public KeysetPage<Faculty> findFacultiesPage(SortKey sort, String cursor, int size) {
+        logger.info("Method findFacultiesPage with sort {}, cursor {} and size {} invoked", sort, cursor, size);
+        validatePage(1, size);
+        KeysetCursor after = cursor == null ? null : KeysetCursor.decode(cursor);
+        long afterId = after == null ? 0 : after.id();
+        List<Faculty> faculties = sort == SortKey.NAME
+                ? facultyRepository.findPageAfterName(after == null ? "" : after.key(), afterId, Limit.of(size))
+                : facultyRepository.findPageAfterId(afterId, Limit.of(size));
+        String nextCursor = null;
+        if (faculties.size() == size) {
+            Faculty last = faculties.get(faculties.size() - 1);
+            String key = sort == SortKey.NAME ? Objects.requireNonNullElse(last.getName(), "") : "";
+            nextCursor = new KeysetCursor(key, last.getId()).encode();
+        }
+        logger.debug("Page of {} faculties found, next cursor {}", faculties.size(), nextCursor);
+        return new KeysetPage<>(faculties, nextCursor);
+    }
+
+    public EntityCacheStatistics getCacheStatistics() {
+        logger.info("Method getCacheStatistics invoked");
+        return entityCache.getFacultyStatistics();
+    }
+
     public Collection<Faculty> filteredFacultyByColor(String color) {
+        return filteredFacultyByColor(color, false);
+    }
+
+    public Collection<Faculty> filteredFacultyByColor(String color, boolean includeStudents) {
         logger.info("Method filteredFacultyByColor with color {} invoked", color);
-        Collection<Faculty> faculties = facultyRepository.findByColor(color);
+        Collection<Faculty> faculties = includeStudents
+                ? facultyRepository.findWithStudentsByColor(color)
+                : facultyRepository.findByColor(color);
         if (faculties.isEmpty()) {
             logger.warn("No faculty found with color {}", color);
         }
@@ -86,8 +197,14 @@ public class FacultyService implements ExceptionService {
     }
 
     public Collection<Faculty> filteredFacultyByName(String name) {
+        return filteredFacultyByName(name, false);
+    }
+
+    public Collection<Faculty> filteredFacultyByName(String name, boolean includeStudents) {
         logger.info("Method filteredFacultyByName with name {} invoked", name);
-        Collection<Faculty> faculties = facultyRepository.findByNameIgnoreCase(name);
+        Collection<Faculty> faculties = includeStudents
+                ? facultyRepository.findWithStudentsByNameIgnoreCase(name)
+                : facultyRepository.findByNameIgnoreCase(name);
         if (faculties.isEmpty()) {
             logger.warn("No faculty found with name {}", name);
         }
@@ -97,17 +214,22 @@ public class FacultyService implements ExceptionService {
 
     public String getLongestFacultyName() {
         logger.info("Method getLongestFacultyName invoked");
-        List<Faculty> faculties = facultyRepository.findAll();
-        if (faculties.isEmpty()) {
+        String longestNameFaculty = facultyNameLengths.snapshot().longestName();
+        if (longestNameFaculty == null) {
             logger.warn("No faculty found");
+            throw new NoFacultyNameException();
         }
-        String longestNameFaculty = faculties
-                .stream()
-                .filter(faculty -> faculty.getName() != null)
-                .max(Comparator.comparingInt(faculty -> faculty.getName().length()))
-                .map(Faculty::getName)
-                .orElseThrow(NoFacultyNameException::new);
         logger.debug("Faculty with  longest name found: {}", longestNameFaculty);
         return longestNameFaculty;
     }
+
+    /**
+     * Самое длинное и короткое название и распределение длин названий, таблица студентов не читается
+     */
+    public FacultyNameStatistics getNameStatistics() {
+        logger.info("Method getNameStatistics invoked");
+        FacultyNameStatistics statistics = facultyNameLengths.snapshot();
+        logger.debug("Faculty name statistics: {}", statistics);
+        return statistics;
+    }
 }
@@ -0,0 +1,209 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.dto.JobStatus;
+import ru.hogwarts.school.dto.JobStatus.State;
+import ru.hogwarts.school.exception.ObjectNotFoundException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Фоновые задачи, разбитые на части. Части выполняются общим пулом фиксированного размера,
+ * одновременно у задачи выполняется не больше parallelism частей. После каждой части обработчик
+ * снова встает в очередь пула, поэтому длинная задача не занимает потоки целиком и задачи чередуются.
+ * Отмена не прерывает уже начатые части, новые части не запускаются. Любая ошибка части, в том числе Error,
+ * завершает задачу с ошибкой и освобождает ее обработчики. Из завершенных задач хранятся
+ * только последние max-retained
+ */
+@Service
+public class JobService {
+    private final ExecutorService executor;
+    private final int maxParallelism;
+    private final int maxRetained;
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private final Queue<Long> finishedJobs = new ConcurrentLinkedQueue<>();
+    private final AtomicLong jobIds = new AtomicLong();
+
+    private static final Logger logger = LoggerFactory.getLogger(JobService.class);
+
+    public JobService(@Value("${students.jobs.threads:0}") int threads,
+                      @Value("${students.jobs.max-parallelism:2}") int maxParallelism,
+                      @Value("${students.jobs.max-retained:100}") int maxRetained) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.maxRetained = maxRetained;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "job-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Часть задачи - диапазон id включительно
+     */
+    public record Chunk(long fromId, long toId) {
+    }
+
+    /**
+     * @param processor обрабатывает часть и возвращает число обработанных записей
+     */
+    public JobStatus submit(String type, List<Chunk> chunks, ToIntFunction<Chunk> processor) {
+        Job job = new Job(jobIds.incrementAndGet(), type, List.copyOf(chunks), processor);
+        jobs.put(job.id, job);
+        int workers = Math.min(maxParallelism, chunks.size());
+        logger.debug("Job {} of type {} submitted with {} chunks and {} workers", job.id, type, chunks.size(), workers);
+        if (workers == 0) {
+            finish(job);
+            return job.status();
+        }
+        job.activeWorkers.set(workers);
+        for (int i = 0; i < workers; i++) {
+            schedule(job);
+        }
+        return job.status();
+    }
+
+    public JobStatus getStatus(long id) {
+        return find(id).status();
+    }
+
+    public Collection<JobStatus> getJobs() {
+        List<JobStatus> statuses = new ArrayList<>();
+        jobs.values().forEach(job -> statuses.add(job.status()));
+        statuses.sort(Comparator.comparingLong(JobStatus::id));
+        return statuses;
+    }
+
+    public JobStatus cancel(long id) {
+        Job job = find(id);
+        if (job.finishedAt == null) {
+            logger.debug("Job {} cancellation requested", id);
+            job.cancelRequested = true;
+        }
+        return job.status();
+    }
+
+    private Job find(long id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new ObjectNotFoundException(id, Job.class);
+        }
+        return job;
+    }
+
+    private void schedule(Job job) {
+        try {
+            executor.execute(() -> runChunk(job));
+        } catch (RejectedExecutionException e) {
+            job.error = "Пул задач остановлен";
+            workerFinished(job);
+        }
+    }
+
+    private void runChunk(Job job) {
+        int index = job.nextChunk.getAndIncrement();
+        if (job.cancelRequested || job.error != null || index >= job.chunks.size()) {
+            workerFinished(job);
+            return;
+        }
+        if (job.startedAt == null) {
+            job.startedAt = Instant.now();
+        }
+        try {
+            int items = job.processor.applyAsInt(job.chunks.get(index));
+            job.processedItems.addAndGet(items);
+            job.completedChunks.incrementAndGet();
+        } catch (Throwable e) {
+            logger.error("Chunk {} of job {} failed", index, job.id, e);
+            job.error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            workerFinished(job);
+            return;
+        }
+        schedule(job);
+    }
+
+    private void workerFinished(Job job) {
+        if (job.activeWorkers.decrementAndGet() == 0) {
+            finish(job);
+        }
+    }
+
+    private void finish(Job job) {
+        job.finishedAt = Instant.now();
+        logger.debug("Job {} finished: {}", job.id, job.status());
+        finishedJobs.add(job.id);
+        while (finishedJobs.size() > maxRetained) {
+            Long evicted = finishedJobs.poll();
+            if (evicted != null) {
+                jobs.remove(evicted);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class Job {
+        private final long id;
+        private final String type;
+        private final List<Chunk> chunks;
+        private final ToIntFunction<Chunk> processor;
+        private final Instant submittedAt = Instant.now();
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final AtomicInteger completedChunks = new AtomicInteger();
+        private final AtomicInteger activeWorkers = new AtomicInteger();
+        private final AtomicLong processedItems = new AtomicLong();
+        private volatile boolean cancelRequested;
+        private volatile String error;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+
+        private Job(long id, String type, List<Chunk> chunks, ToIntFunction<Chunk> processor) {
+            this.id = id;
+            this.type = type;
+            this.chunks = chunks;
+            this.processor = processor;
+        }
+
+        private JobStatus status() {
+            Instant finished = finishedAt;
+            return new JobStatus(id, type, state(finished), chunks.size(), completedChunks.get(),
+                    processedItems.get(), error, submittedAt, finished);
+        }
+
+        private State state(Instant finished) {
+            if (finished == null) {
+                if (cancelRequested) {
+                    return State.CANCELLING;
+                }
+                return startedAt == null ? State.QUEUED : State.RUNNING;
+            }
+            if (error != null) {
+                return State.FAILED;
+            }
+            return completedChunks.get() < chunks.size() ? State.CANCELLED : State.COMPLETED;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.exception.InvalidPageException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Позиция постраничного вывода по ключу: значение ключа сортировки и id последней строки страницы.
+ * Клиенту отдается непрозрачной строкой в base64url
+ */
+record KeysetCursor(String key, long id) {
+
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((key + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ключ сортировки, записанный числом, например возраст
+     */
+    int intKey() {
+        try {
+            return Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            throw new InvalidPageException("Некорректный курсор страницы: " + encode());
+        }
+    }
+
+    static KeysetCursor decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.lastIndexOf('|');
+            return new KeysetCursor(decoded.substring(0, separator), Long.parseLong(decoded.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new InvalidPageException("Некорректный курсор страницы: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.hogwarts.school.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Потоковая выгрузка студентов и факультетов в NDJSON: по одному JSON объекту на строку.
+ * Строки читаются курсором с fetchSize в read-only транзакции и сразу пишутся в ответ,
+ * поэтому память не зависит от размера таблицы. Выгруженные факультеты отсоединяются от контекста
+ * персистентности, студенты факультетов не загружаются. Ответ сбрасывается по заполнении буфера, а не после каждой строки
+ */
+@Service
+public class NdjsonExportService {
+    private final StudentRepository studentRepository;
+    private final FacultyRepository facultyRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter rowWriter;
+    private final TransactionTemplate readOnlyTransaction;
+
+    private static final Logger logger = LoggerFactory.getLogger(NdjsonExportService.class);
+
+    public NdjsonExportService(StudentRepository studentRepository,
+                               FacultyRepository facultyRepository,
+                               EntityManager entityManager,
+                               ObjectMapper objectMapper,
+                               PlatformTransactionManager transactionManager) {
+        this.studentRepository = studentRepository;
+        this.facultyRepository = facultyRepository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        this.rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public void exportStudents(OutputStream out) throws IOException {
+        logger.info("Method exportStudents invoked");
+        export(out, studentRepository::streamAll, student -> {
+        });
+    }
+
+    public void exportFaculties(OutputStream out) throws IOException {
+        logger.info("Method exportFaculties invoked");
+        export(out, facultyRepository::streamAll, entityManager::detach);
+    }
+
+    private <T> void export(OutputStream out, Supplier<Stream<T>> rows, Consumer<T> afterWrite)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        try {
+            Integer count = readOnlyTransaction.execute(status -> {
+                int written = 0;
+                try (Stream<T> stream = rows.get()) {
+                    Iterator<T> iterator = stream.iterator();
+                    while (iterator.hasNext()) {
+                        T row = iterator.next();
+                        rowWriter.writeValue(generator, row);
+                        generator.writeRaw('\n');
+                        afterWrite.accept(row);
+                        written++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return written;
+            });
+            generator.flush();
+            logger.debug("{} rows exported in {} ms", count, System.currentTimeMillis() - start);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.PrintSinkStatistics;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Вывод строк из многих потоков через кольцевой буфер без блокировок: потоки занимают ячейки CAS-ом по общему
+ * счетчику, единственный поток вывода забирает строки по порядку и пишет их пачками. Строки одного потока выводятся
+ * в порядке вызова print, строки разных потоков перемешиваются. При заполненном буфере поведение задает overflow:
+ * BLOCK - ждать места, DROP - отбросить строку, SAMPLE - ждать места для каждой sample-rate-й строки, остальные отбросить
+ */
+@Component
+public class PrintSink {
+    private static final int MAX_BATCH = 256;
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final Overflow overflow;
+    private final int sampleRate;
+    private final PrintStream out;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long written;
+    private volatile boolean running = true;
+    private final Thread drainThread;
+
+    private static final Logger logger = LoggerFactory.getLogger(PrintSink.class);
+
+    public enum Overflow {
+        BLOCK,
+        DROP,
+        SAMPLE
+    }
+
+    @Autowired
+    public PrintSink(@Value("${students.print-sink.capacity:8192}") int capacity,
+                     @Value("${students.print-sink.overflow:BLOCK}") Overflow overflow,
+                     @Value("${students.print-sink.sample-rate:100}") int sampleRate) {
+        this(capacity, overflow, sampleRate, System.out);
+    }
+
+    PrintSink(int capacity, Overflow overflow, int sampleRate, PrintStream out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.buffer = new String[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.overflow = overflow;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.out = out;
+        this.drainThread = new Thread(this::drain, "print-sink");
+        this.drainThread.setDaemon(true);
+        this.drainThread.start();
+    }
+
+    /**
+     * @return false, если строка отброшена из-за переполнения
+     */
+    public boolean print(String line) {
+        if (offer(line)) {
+            return true;
+        }
+        boolean wait = overflow == Overflow.BLOCK
+                || overflow == Overflow.SAMPLE && rejected.incrementAndGet() % sampleRate == 0;
+        if (wait) {
+            int spins = 0;
+            while (running && !Thread.currentThread().isInterrupted()) {
+                if (offer(line)) {
+                    return true;
+                }
+                if (++spins < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(50_000);
+                }
+            }
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public PrintSinkStatistics getStatistics() {
+        return new PrintSinkStatistics(written, dropped.get(), (int) (tail.get() - head), buffer.length, overflow.name());
+    }
+
+    private boolean offer(String line) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer[index] = line;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Вызывается только потоком вывода
+     */
+    private String poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        String line = buffer[index];
+        buffer[index] = null;
+        sequences.set(index, position + buffer.length);
+        head = position + 1;
+        return line;
+    }
+
+    private void drain() {
+        StringBuilder batch = new StringBuilder();
+        long idleNanos = 0;
+        while (running || head != tail.get()) {
+            int lines = 0;
+            String line;
+            while (lines < MAX_BATCH && (line = poll()) != null) {
+                batch.append(line).append(System.lineSeparator());
+                lines++;
+            }
+            if (lines > 0) {
+                out.print(batch);
+                out.flush();
+                batch.setLength(0);
+                written += lines;
+                idleNanos = 0;
+            } else if (head == tail.get()) {
+                idleNanos = Math.min(MAX_IDLE_NANOS, Math.max(10_000, idleNanos * 2));
+                LockSupport.parkNanos(idleNanos);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Выводит оставшиеся строки и останавливает поток вывода
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.debug("Print sink stopped: {}", getStatistics());
+    }
+}
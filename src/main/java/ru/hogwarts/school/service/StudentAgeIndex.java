@@ -0,0 +1,216 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.StudentAge;
+import ru.hogwarts.school.event.StudentChangeListener;
+import ru.hogwarts.school.event.StudentState;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Индекс студентов по возрасту в памяти (students.age-index.enabled=true). Для каждого возраста хранится
+ * отсортированный массив id, поэтому фильтр по возрасту или диапазону и подсчет не обращаются к базе,
+ * а сущности загружаются по id только для возвращаемой страницы. Результаты упорядочены по возрасту и id.
+ * Индекс строится при старте и обновляется по закоммиченным изменениям студентов. Изменения, пришедшие
+ * во время перестроения, применяются к новому индексу повторно: добавление и удаление id идемпотентны
+ */
+@Component
+@ConditionalOnProperty(name = "students.age-index.enabled", havingValue = "true")
+public class StudentAgeIndex implements StudentChangeListener {
+    private final StudentRepository studentRepository;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private TreeMap<Integer, IdBucket> buckets = new TreeMap<>();
+    private List<StudentState[]> changesDuringRebuild;
+    private volatile boolean loaded;
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentAgeIndex.class);
+
+    public StudentAgeIndex(StudentRepository studentRepository) {
+        this.studentRepository = studentRepository;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            changesDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        TreeMap<Integer, IdBucket> rebuilt = new TreeMap<>();
+        List<StudentAge> students;
+        try {
+            students = studentRepository.findAllAges();
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                changesDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        for (StudentAge student : students) {
+            rebuilt.computeIfAbsent(student.age(), age -> new IdBucket()).append(student.id());
+        }
+        rebuilt.values().forEach(IdBucket::sort);
+
+        lock.writeLock().lock();
+        try {
+            for (StudentState[] change : changesDuringRebuild) {
+                apply(rebuilt, change[0], change[1]);
+            }
+            changesDuringRebuild = null;
+            buckets = rebuilt;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Student age index built in {} ms, {} students in {} ages",
+                System.currentTimeMillis() - start, students.size(), rebuilt.size());
+    }
+
+    public long count(int fromAge, int toAge) {
+        lock.readLock().lock();
+        try {
+            return countInRange(fromAge, toAge);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * id студентов с возрастом от fromAge до toAge включительно, по возрасту и id
+     */
+    public long[] findIds(int fromAge, int toAge, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            long[] result = new long[(int) Math.min(limit, Math.max(0, countInRange(fromAge, toAge) - offset))];
+            int filled = 0;
+            long skip = offset;
+            for (IdBucket bucket : range(fromAge, toAge).values()) {
+                if (filled == result.length) {
+                    break;
+                }
+                if (skip >= bucket.size) {
+                    skip -= bucket.size;
+                    continue;
+                }
+                int length = (int) Math.min(bucket.size - skip, result.length - filled);
+                System.arraycopy(bucket.ids, (int) skip, result, filled, length);
+                filled += length;
+                skip = 0;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onStudentChanged(StudentState before, StudentState after) {
+        lock.writeLock().lock();
+        try {
+            apply(buckets, before, after);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(new StudentState[]{before, after});
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onStudentsReloadRequired() {
+        rebuild();
+    }
+
+    private long countInRange(int fromAge, int toAge) {
+        long count = 0;
+        for (IdBucket bucket : range(fromAge, toAge).values()) {
+            count += bucket.size;
+        }
+        return count;
+    }
+
+    private NavigableMap<Integer, IdBucket> range(int fromAge, int toAge) {
+        if (fromAge > toAge) {
+            return new TreeMap<>();
+        }
+        return buckets.subMap(fromAge, true, toAge, true);
+    }
+
+    private static void apply(TreeMap<Integer, IdBucket> buckets, StudentState before, StudentState after) {
+        if (before != null) {
+            IdBucket bucket = buckets.get(before.age());
+            if (bucket != null) {
+                bucket.remove(before.id());
+            }
+        }
+        if (after != null) {
+            buckets.computeIfAbsent(after.age(), age -> new IdBucket()).add(after.id());
+        }
+    }
+
+    /**
+     * Отсортированное множество id на примитивном массиве с запасом емкости
+     */
+    private static class IdBucket {
+        private long[] ids = new long[8];
+        private int size;
+
+        void append(long id) {
+            ensureCapacity();
+            ids[size++] = id;
+        }
+
+        void sort() {
+            Arrays.sort(ids, 0, size);
+        }
+
+        void add(long id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return;
+            }
+            int insertion = -position - 1;
+            ensureCapacity();
+            System.arraycopy(ids, insertion, ids, insertion + 1, size - insertion);
+            ids[insertion] = id;
+            size++;
+        }
+
+        void remove(long id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) {
+                return;
+            }
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+
+        private void ensureCapacity() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+        }
+    }
+}
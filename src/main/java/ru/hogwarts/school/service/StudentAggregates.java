@@ -0,0 +1,131 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.StudentAgeTotals;
+import ru.hogwarts.school.dto.StudentAggregatesConsistency;
+import ru.hogwarts.school.event.StudentChangeListener;
+import ru.hogwarts.school.event.StudentEventBridge;
+import ru.hogwarts.school.event.StudentState;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.Optional;
+
+/**
+ * Число студентов и суммы возрастов в памяти, чтобы count и average не считались по всей таблице.
+ * Загружаются при старте, обновляются по закоммиченным изменениям студентов и периодически сверяются с базой.
+ * Сверка перезаписывает агрегаты только по снимку, в котором нет изменений, еще не переданных подписчикам:
+ * до запроса не должно быть незавершенных транзакций со студентами, а во время запроса не должно быть новых записей.
+ * Иначе снимок может учесть коммит, событие о котором придет позже, и изменение применится дважды.
+ * Такая сверка повторяется несколько раз, а если снимок так и не получен, расхождение исправит следующая сверка
+ */
+@Component
+public class StudentAggregates implements StudentChangeListener {
+    private static final int RECONCILE_ATTEMPTS = 5;
+    private static final long RECONCILE_RETRY_DELAY_MS = 20;
+
+    private final StudentRepository studentRepository;
+    private final StudentEventBridge studentEventBridge;
+    private volatile StudentAgeTotals totals;
+    private long changes;
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentAggregates.class);
+
+    public StudentAggregates(StudentRepository studentRepository, StudentEventBridge studentEventBridge) {
+        this.studentRepository = studentRepository;
+        this.studentEventBridge = studentEventBridge;
+    }
+
+    /**
+     * @return пусто, пока агрегаты не загружены из базы
+     */
+    public Optional<StudentAgeTotals> current() {
+        return Optional.ofNullable(totals);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${students.aggregates.reconcile-interval:PT5M}",
+            initialDelayString = "${students.aggregates.reconcile-interval:PT5M}")
+    public void reconcile() {
+        for (int attempt = 1; attempt <= RECONCILE_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                try {
+                    Thread.sleep(RECONCILE_RETRY_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (tryReconcile()) {
+                return;
+            }
+        }
+        logger.debug("Students kept changing during {} reconciliation attempts, skipped", RECONCILE_ATTEMPTS);
+    }
+
+    /**
+     * @return false, если снимок мог учесть изменения, о которых подписчики еще не узнали
+     */
+    private boolean tryReconcile() {
+        long changesBefore;
+        long flushesBefore;
+        synchronized (this) {
+            changesBefore = changes;
+            flushesBefore = studentEventBridge.flushes();
+            if (studentEventBridge.hasChangesInFlight()) {
+                return false;
+            }
+        }
+        StudentAgeTotals database = studentRepository.calculateAgeTotals();
+        if (database == null) {
+            logger.warn("Student age totals are not available, aggregates stay unloaded");
+            return true;
+        }
+        synchronized (this) {
+            if (changes != changesBefore || studentEventBridge.flushes() != flushesBefore) {
+                return false;
+            }
+            if (!database.equals(totals)) {
+                if (totals != null) {
+                    logger.warn("Student aggregates drifted: memory {}, database {}", totals, database);
+                }
+                totals = database;
+            }
+            return true;
+        }
+    }
+
+    public StudentAggregatesConsistency checkConsistency() {
+        StudentAgeTotals memory = totals;
+        StudentAgeTotals database = studentRepository.calculateAgeTotals();
+        return new StudentAggregatesConsistency(memory, database, database != null && database.equals(memory));
+    }
+
+    @Override
+    public synchronized void onStudentChanged(StudentState before, StudentState after) {
+        changes++;
+        StudentAgeTotals updated = totals;
+        if (updated == null) {
+            return;
+        }
+        if (before != null) {
+            updated = updated.minus(before.age());
+        }
+        if (after != null) {
+            updated = updated.plus(after.age());
+        }
+        totals = updated;
+    }
+
+    @Override
+    public void onStudentsReloadRequired() {
+        synchronized (this) {
+            changes++;
+        }
+        reconcile();
+    }
+}
@@ -0,0 +1,236 @@
+package ru.hogwarts.school.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.dto.FacultyName;
+import ru.hogwarts.school.dto.StudentImportError;
+import ru.hogwarts.school.dto.StudentImportReport;
+import ru.hogwarts.school.event.StudentEventBridge;
+import ru.hogwarts.school.repository.FacultyRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Массовый импорт студентов из CSV (name,age,faculty) или NDJSON ({"name":..,"age":..,"faculty":..}).
+ * Вход читается построчно, строки проверяются и вставляются пакетами JDBC, каждый пакет в своей транзакции.
+ * id генерируются базой (IDENTITY), поэтому Hibernate такие вставки не пакетирует, а JDBC пакет - да.
+ * Названия факультетов сопоставляются с id одним запросом на весь импорт.
+ * Если чтение входа обрывается, недочитанный пакет не вставляется, уже зафиксированные пакеты остаются.
+ * Вставка идет в обход Hibernate, поэтому после импорта производные данные студентов перестраиваются
+ */
+@Service
+public class StudentImportService {
+    private static final String INSERT_SQL = "insert into student (name, age, faculty_id) values (?, ?, ?)";
+    private static final int MAX_NAME_LENGTH = 255;
+
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FacultyRepository facultyRepository;
+    private final StudentEventBridge studentEventBridge;
+    private final ObjectReader rowReader;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxReportedErrors;
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentImportService.class);
+
+    public StudentImportService(JdbcTemplate jdbcTemplate,
+                                FacultyRepository facultyRepository,
+                                StudentEventBridge studentEventBridge,
+                                ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${students.import.batch-size:1000}") int batchSize,
+                                @Value("${students.import.max-reported-errors:1000}") int maxReportedErrors) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.facultyRepository = facultyRepository;
+        this.studentEventBridge = studentEventBridge;
+        this.rowReader = objectMapper.readerFor(ImportRow.class);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    public StudentImportReport importStudents(InputStream body, Format format) throws IOException {
+        logger.info("Method importStudents with format {} invoked", format);
+        long start = System.currentTimeMillis();
+        Map<String, Long> facultyIds = new HashMap<>();
+        for (FacultyName faculty : facultyRepository.findAllNames()) {
+            if (faculty.name() != null) {
+                facultyIds.putIfAbsent(faculty.name().toLowerCase(Locale.ROOT), faculty.id());
+            }
+        }
+
+        Progress progress = new Progress();
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        List<Long> batchLines = new ArrayList<>(batchSize);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || lineNumber == 1 && format == Format.CSV && isCsvHeader(line)) {
+                    continue;
+                }
+                Object[] values;
+                try {
+                    values = toValues(format == Format.CSV ? parseCsv(line) : parseJson(line), facultyIds);
+                } catch (IllegalArgumentException e) {
+                    progress.fail(lineNumber, e.getMessage());
+                    continue;
+                }
+                batch.add(values);
+                batchLines.add(lineNumber);
+                if (batch.size() == batchSize) {
+                    insert(batch, batchLines, progress);
+                    batch.clear();
+                    batchLines.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                insert(batch, batchLines, progress);
+            }
+        } finally {
+            if (progress.imported > 0) {
+                studentEventBridge.publishReloadRequired();
+            }
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        logger.info("Student import finished in {} ms: {} imported, {} failed", duration, progress.imported, progress.failed);
+        return new StudentImportReport(duration, progress.imported, progress.failed, progress.errors);
+    }
+
+    private void insert(List<Object[]> batch, List<Long> batchLines, Progress progress) {
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.batchUpdate(INSERT_SQL, batch, new int[]{Types.VARCHAR, Types.INTEGER, Types.BIGINT}));
+            progress.imported += batch.size();
+        } catch (DataAccessException e) {
+            logger.error("Failed to insert batch of {} students from line {}", batch.size(), batchLines.get(0), e);
+            String message = "Пакет отклонен базой данных";
+            for (Long line : batchLines) {
+                progress.fail(line, message);
+            }
+        }
+    }
+
+    private Object[] toValues(ImportRow row, Map<String, Long> facultyIds) {
+        if (row.name() == null || row.name().isBlank()) {
+            throw new IllegalArgumentException("Имя не может быть пустым");
+        }
+        if (row.name().length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Имя должно быть не длиннее " + MAX_NAME_LENGTH + " символов");
+        }
+        if (row.age() == null || row.age() < 0) {
+            throw new IllegalArgumentException("Возраст должен быть неотрицательным числом");
+        }
+        Long facultyId = null;
+        if (row.faculty() != null && !row.faculty().isBlank()) {
+            facultyId = facultyIds.get(row.faculty().trim().toLowerCase(Locale.ROOT));
+            if (facultyId == null) {
+                throw new IllegalArgumentException("Факультет " + row.faculty() + " не найден");
+            }
+        }
+        return new Object[]{row.name().trim(), row.age(), facultyId};
+    }
+
+    private ImportRow parseJson(String line) {
+        try {
+            return rowReader.readValue(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Некорректный JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private ImportRow parseCsv(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() < 2 || fields.size() > 3) {
+            throw new IllegalArgumentException("Ожидается name,age[,faculty], получено полей: " + fields.size());
+        }
+        Integer age;
+        try {
+            age = Integer.valueOf(fields.get(1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Возраст не является числом: " + fields.get(1));
+        }
+        return new ImportRow(fields.get(0), age, fields.size() == 3 ? fields.get(2) : null);
+    }
+
+    private static boolean isCsvHeader(String line) {
+        return line.trim().toLowerCase(Locale.ROOT).startsWith("name,");
+    }
+
+    /**
+     * Поля в двойных кавычках могут содержать запятые, кавычка внутри поля удваивается. Перевод строки
+     * внутри поля не поддерживается
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Не закрыта кавычка");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private record ImportRow(String name, Integer age, String faculty) {
+    }
+
+    private class Progress {
+        private long imported;
+        private long failed;
+        private final List<StudentImportError> errors = new ArrayList<>();
+
+        void fail(long line, String message) {
+            failed++;
+            if (errors.size() < maxReportedErrors) {
+                errors.add(new StudentImportError(line, message));
+            }
+        }
+    }
+}
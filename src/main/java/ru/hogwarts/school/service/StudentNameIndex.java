@@ -0,0 +1,133 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.dto.StudentName;
+import ru.hogwarts.school.event.StudentChangeListener;
+import ru.hogwarts.school.event.StudentState;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Отсортированный индекс имен в памяти (students.name-search.mode=memory). Ключ - имя в нижнем регистре и id,
+ * поиск по префиксу - это подмап от префикса до префикса с максимальным символом, поэтому время
+ * зависит от числа найденных имен, а не от размера таблицы. Индекс строится при старте и обновляется
+ * по закоммиченным изменениям студентов. Изменения, пришедшие во время перестроения, применяются
+ * к новому индексу повторно: удаление и добавление ключа идемпотентны
+ */
+@Component
+@ConditionalOnProperty(name = "students.name-search.mode", havingValue = "memory")
+public class StudentNameIndex implements StudentChangeListener {
+    private final StudentRepository studentRepository;
+    private final Lock lock = new ReentrantLock();
+    private volatile ConcurrentSkipListMap<String, String> names = new ConcurrentSkipListMap<>();
+    private List<StudentState[]> changesDuringRebuild;
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentNameIndex.class);
+
+    public StudentNameIndex(StudentRepository studentRepository) {
+        this.studentRepository = studentRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            changesDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+
+        ConcurrentSkipListMap<String, String> rebuilt = new ConcurrentSkipListMap<>();
+        try {
+            for (StudentName student : studentRepository.findAllNames()) {
+                if (student.name() != null) {
+                    rebuilt.put(key(student.name(), student.id()), student.name());
+                }
+            }
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                changesDuringRebuild = null;
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            for (StudentState[] change : changesDuringRebuild) {
+                apply(rebuilt, change[0], change[1]);
+            }
+            changesDuringRebuild = null;
+            names = rebuilt;
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Student name index built in {} ms, {} names", System.currentTimeMillis() - start, rebuilt.size());
+    }
+
+    public List<String> findByPrefix(String prefix, long offset, int limit) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        NavigableMap<String, String> matches = names.subMap(from, true, from + Character.MAX_VALUE, false);
+        List<String> result = new ArrayList<>(Math.min(limit, 256));
+        long skipped = 0;
+        for (String name : matches.values()) {
+            if (skipped++ < offset) {
+                continue;
+            }
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(name);
+        }
+        return result;
+    }
+
+    @Override
+    public void onStudentChanged(StudentState before, StudentState after) {
+        lock.lock();
+        try {
+            apply(names, before, after);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(new StudentState[]{before, after});
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onStudentsReloadRequired() {
+        rebuild();
+    }
+
+    private static void apply(NavigableMap<String, String> names, StudentState before, StudentState after) {
+        if (before != null && before.name() != null) {
+            names.remove(key(before.name(), before.id()));
+        }
+        if (after != null && after.name() != null) {
+            names.put(key(after.name(), after.id()), after.name());
+        }
+    }
+
+    /**
+     * id дополняется нулями, чтобы одинаковые имена шли в порядке id, как в запросе к базе
+     */
+    private static String key(String name, long id) {
+        return name.toLowerCase(Locale.ROOT) + '\u0000' + "%019d".formatted(id);
+    }
+}
@@ -3,7 +3,20 @@ package ru.hogwarts.school.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import ru.hogwarts.school.cache.EntityCache;
+import ru.hogwarts.school.dto.EntityCacheStatistics;
+import ru.hogwarts.school.dto.JobStatus;
+import ru.hogwarts.school.dto.KeysetPage;
+import ru.hogwarts.school.dto.PrintSinkStatistics;
+import ru.hogwarts.school.dto.StudentAgeTotals;
+import ru.hogwarts.school.dto.StudentAggregatesConsistency;
+import ru.hogwarts.school.dto.StudentIdRange;
 import ru.hogwarts.school.exception.NoStudentsNotFoundException;
 import ru.hogwarts.school.exception.ObjectNotFoundException;
 import ru.hogwarts.school.model.Student;
@@ -14,12 +27,35 @@ import java.util.*;
 @Service
 public class StudentService implements ExceptionService, SynchronizationService {
     private final StudentRepository studentRepository;
+    private final Optional<StudentNameIndex> studentNameIndex;
+    private final StudentAggregates studentAggregates;
+    private final Optional<StudentAgeIndex> studentAgeIndex;
+    private final EntityCache entityCache;
+    private final JobService jobService;
+    private final PrintSink printSink;
+    private final int jobChunkSize;
+
+    private static final int ID_CHUNK_SIZE = 1000;
 
     private static final Logger logger = LoggerFactory.getLogger(StudentService.class);
 
     @Autowired
-    public StudentService(StudentRepository studentRepository) {
+    public StudentService(StudentRepository studentRepository,
+                          Optional<StudentNameIndex> studentNameIndex,
+                          StudentAggregates studentAggregates,
+                          Optional<StudentAgeIndex> studentAgeIndex,
+                          EntityCache entityCache,
+                          JobService jobService,
+                          PrintSink printSink,
+                          @Value("${students.jobs.chunk-size:1000}") int jobChunkSize) {
         this.studentRepository = studentRepository;
+        this.studentNameIndex = studentNameIndex;
+        this.studentAggregates = studentAggregates;
+        this.studentAgeIndex = studentAgeIndex;
+        this.entityCache = entityCache;
+        this.jobService = jobService;
+        this.printSink = printSink;
+        this.jobChunkSize = jobChunkSize;
     }
 
     public Student createStudent(Student student) {
@@ -40,7 +76,8 @@ public class StudentService implements ExceptionService, SynchronizationService
 
     public Student findStudent(long id) {
         logger.info("Method findStudent with iD {} invoked", id);
-        Optional<Student> optionalStudent = studentRepository.findById(id);
+        Optional<Student> optionalStudent = Optional.ofNullable(
+                entityCache.getStudent(id, studentId -> studentRepository.findById(studentId).orElse(null)));
         if (optionalStudent.isPresent()) {
             logger.debug("Found student: {}", optionalStudent.get());
         } else {
@@ -49,6 +86,24 @@ public class StudentService implements ExceptionService, SynchronizationService
         return getEntityOrThrow(optionalStudent, id, Student.class);
     }
 
+    /**
+     * Существующие из переданных id. Строки найденных студентов блокируются до конца транзакции:
+     * изменения, связанные со студентом (например, аватар), выполняются по одному
+     */
+    public Set<Long> lockExistingIds(Collection<Long> ids) {
+        logger.info("Method lockExistingIds for {} ids invoked", ids.size());
+        Set<Long> existingIds = new HashSet<>(studentRepository.lockExistingIds(ids));
+        logger.debug("{} of {} students locked", existingIds.size(), ids.size());
+        return existingIds;
+    }
+
+    /**
+     * Ссылка на студента без обращения к базе, для связей новых сущностей с уже проверенным студентом
+     */
+    public Student getReference(long id) {
+        return studentRepository.getReferenceById(id);
+    }
+
     public Student editStudent(Student student) {
         logger.info("Method editStudent with iD {} invoked", student.getId());
         Student savedStudent = studentRepository.save(student);
@@ -76,9 +131,68 @@ public class StudentService implements ExceptionService, SynchronizationService
         return students;
     }
 
+    public enum SortKey {
+        ID,
+        AGE
+    }
+
+    /**
+     * Страница студентов по ключу сортировки и id, без факультета
+     * @param cursor nextCursor предыдущей страницы, null - первая страница
+     */
+    public KeysetPage<Student> findStudentsPage(SortKey sort, String cursor, int size) {
+        logger.info("Method findStudentsPage with sort {}, cursor {} and size {} invoked", sort, cursor, size);
+        validatePage(1, size);
+        KeysetCursor after = cursor == null ? null : KeysetCursor.decode(cursor);
+        long afterId = after == null ? 0 : after.id();
+        List<Student> students = sort == SortKey.AGE
+                ? studentRepository.findPageAfterAge(after == null ? Integer.MIN_VALUE : after.intKey(), afterId, Limit.of(size))
+                : studentRepository.findPageAfterId(afterId, Limit.of(size));
+        return toKeysetPage(students, sort, size);
+    }
+
+    /**
+     * Страница студентов факультета по ключу с необязательным фильтром по возрасту (границы включительно),
+     * время выборки страницы не зависит от ее номера
+     */
+    public KeysetPage<Student> findStudentsOfFacultyPage(long facultyId, SortKey sort, String cursor, int size,
+                                                         Integer minAge, Integer maxAge) {
+        logger.info("Method findStudentsOfFacultyPage with faculty iD {}, sort {}, cursor {}, size {} and ages {}-{} invoked",
+                facultyId, sort, cursor, size, minAge, maxAge);
+        validatePage(1, size);
+        KeysetCursor after = cursor == null ? null : KeysetCursor.decode(cursor);
+        long afterId = after == null ? 0 : after.id();
+        int fromAge = minAge == null ? Integer.MIN_VALUE : minAge;
+        int toAge = maxAge == null ? Integer.MAX_VALUE : maxAge;
+        List<Student> students = sort == SortKey.AGE
+                ? studentRepository.findFacultyPageAfterAge(facultyId, fromAge, toAge,
+                        after == null ? Integer.MIN_VALUE : after.intKey(), afterId, Limit.of(size))
+                : studentRepository.findFacultyPageAfterId(facultyId, fromAge, toAge, afterId, Limit.of(size));
+        return toKeysetPage(students, sort, size);
+    }
+
+    public long countStudentsOfFaculty(long facultyId, Integer minAge, Integer maxAge) {
+        logger.info("Method countStudentsOfFaculty with faculty iD {} and ages {}-{} invoked", facultyId, minAge, maxAge);
+        return studentRepository.countByFacultyIdAndAgeBetween(facultyId,
+                minAge == null ? Integer.MIN_VALUE : minAge, maxAge == null ? Integer.MAX_VALUE : maxAge);
+    }
+
+    private KeysetPage<Student> toKeysetPage(List<Student> students, SortKey sort, int size) {
+        String nextCursor = null;
+        if (students.size() == size) {
+            Student last = students.get(students.size() - 1);
+            String key = sort == SortKey.AGE ? String.valueOf(last.getAge()) : "";
+            nextCursor = new KeysetCursor(key, last.getId()).encode();
+        }
+        logger.debug("Page of {} students found, next cursor {}", students.size(), nextCursor);
+        return new KeysetPage<>(students, nextCursor);
+    }
+
     public Collection<Student> filteredStudentByAge(int age) {
         logger.info("Method filteredStudentByAge with age {} invoked", age);
-        Collection<Student> students = studentRepository.findByAge(age);
+        Collection<Student> students = loadedAgeIndex()
+                .map(index -> findAllInOrder(index.findIds(age, age, 0, Integer.MAX_VALUE)))
+                .orElseGet(() -> studentRepository.findByAge(age));
         if (students.isEmpty()) {
             logger.warn("No students found with age {}", age);
         }
@@ -88,7 +202,9 @@ public class StudentService implements ExceptionService, SynchronizationService
 
     public Collection<Student> findByAgeBetween(int startAge, int endAge) {
         logger.info("Method findByAgeBetween age {} and age {} invoked", startAge, endAge);
-        Collection<Student> students = studentRepository.findByAgeBetween(startAge, endAge);
+        Collection<Student> students = loadedAgeIndex()
+                .map(index -> findAllInOrder(index.findIds(startAge, endAge, 0, Integer.MAX_VALUE)))
+                .orElseGet(() -> studentRepository.findByAgeBetween(startAge, endAge));
         if (students.isEmpty()) {
             logger.warn("No students found between ages {} and {}", startAge, endAge);
         }
@@ -96,14 +212,72 @@ public class StudentService implements ExceptionService, SynchronizationService
         return students;
     }
 
+    /**
+     * Страница студентов с возрастом от startAge до endAge включительно, по возрасту и id
+     * @param page номер страницы с 1
+     */
+    public List<Student> findByAgeBetween(int startAge, int endAge, int page, int size) {
+        logger.info("Method findByAgeBetween age {} and age {}, page {} and size {} invoked", startAge, endAge, page, size);
+        validatePage(page, size);
+        long offset = (long) (page - 1) * size;
+        List<Student> students = loadedAgeIndex()
+                .map(index -> findAllInOrder(index.findIds(startAge, endAge, offset, size)))
+                .orElseGet(() -> studentRepository.findByAgeBetween(startAge, endAge,
+                        PageRequest.of(page - 1, size, Sort.by("age", "id"))));
+        logger.debug("Page {} of students between ages {} and {}: {}", page, startAge, endAge, students.size());
+        return students;
+    }
+
+    public long countByAgeBetween(int startAge, int endAge) {
+        logger.info("Method countByAgeBetween age {} and age {} invoked", startAge, endAge);
+        return loadedAgeIndex()
+                .map(index -> index.count(startAge, endAge))
+                .orElseGet(() -> studentRepository.countByAgeBetween(startAge, endAge));
+    }
+
+    private Optional<StudentAgeIndex> loadedAgeIndex() {
+        return studentAgeIndex.filter(StudentAgeIndex::isLoaded);
+    }
+
+    /**
+     * Загружает студентов по id пачками, сохраняя порядок ids. Студенты, удаленные после чтения индекса, пропускаются
+     */
+    private List<Student> findAllInOrder(long[] ids) {
+        Map<Long, Student> byId = new HashMap<>(ids.length * 2);
+        for (int from = 0; from < ids.length; from += ID_CHUNK_SIZE) {
+            List<Long> chunk = Arrays.stream(ids, from, Math.min(ids.length, from + ID_CHUNK_SIZE)).boxed().toList();
+            for (Student student : studentRepository.findAllById(chunk)) {
+                byId.put(student.getId(), student);
+            }
+        }
+        List<Student> students = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Student student = byId.get(id);
+            if (student != null) {
+                students.add(student);
+            }
+        }
+        return students;
+    }
+
     public int getStudentsCount() {
         logger.info("Method getStudentsCount invoked");
+        Optional<StudentAgeTotals> totals = studentAggregates.current();
+        if (totals.isPresent()) {
+            return (int) totals.get().count();
+        }
         return studentRepository.countAllStudents();
     }
 
     public double getAverageAgeOfStudents() {
         logger.info("Method getAverageAgeOfStudents invoked");
-        Double avg = studentRepository.averageAgeOfStudents();
+        Optional<StudentAgeTotals> totals = studentAggregates.current();
+        Double avg;
+        if (totals.isPresent()) {
+            avg = totals.get().count() == 0 ? null : (double) totals.get().ageSum() / totals.get().count();
+        } else {
+            avg = studentRepository.averageAgeOfStudents();
+        }
         if (avg == null) {
             logger.error("No students found to calculate average age");
             throw new NoStudentsNotFoundException();
@@ -127,13 +301,8 @@ public class StudentService implements ExceptionService, SynchronizationService
 
         validateSymbol(symbol);
 
-        List<String> result = studentRepository
-                .findAll()
+        List<String> result = findNamesByOffset(symbol, 0, Integer.MAX_VALUE)
                 .stream()
-                .map(Student::getName)
-                .filter(name -> name != null
-                        && !name.isEmpty()
-                        && name.toLowerCase().startsWith(symbol.toLowerCase()))
                 .map(String::toUpperCase)
                 .sorted()
                 .toList();
@@ -142,8 +311,48 @@ public class StudentService implements ExceptionService, SynchronizationService
         return result;
     }
 
+    /**
+     * Имена, начинающиеся с prefix без учета регистра, в порядке имени и id. Ищет по индексу в базе
+     * или, при students.name-search.mode=memory, по StudentNameIndex
+     * @param page номер страницы с 1
+     */
+    public List<String> findNamesByPrefix(String prefix, int page, int size) {
+        logger.info("Method findNamesByPrefix with prefix {}, page {} and size {} invoked", prefix, page, size);
+        validatePrefix(prefix);
+        validatePage(page, size);
+        List<String> names = findNamesByOffset(prefix, (long) (page - 1) * size, size);
+        logger.debug("Found {} names starting with {}", names.size(), prefix);
+        return names;
+    }
+
+    private List<String> findNamesByOffset(String prefix, long offset, int limit) {
+        if (studentNameIndex.isPresent()) {
+            return studentNameIndex.get().findByPrefix(prefix, offset, limit);
+        }
+        Pageable pageable = limit == Integer.MAX_VALUE ? Pageable.unpaged() : PageRequest.of((int) (offset / limit), limit);
+        return studentRepository.findNamesByPrefix(likePrefixPattern(prefix), pageable);
+    }
+
+    /**
+     * Экранирует спецсимволы LIKE, чтобы % и _ в префиксе искались буквально
+     */
+    static String likePrefixPattern(String prefix) {
+        String escaped = prefix.toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        return escaped + "%";
+    }
+
     public double getAverageAgeOfStudentsStream() {
         logger.info("Method getAverageAgeOfStudentsStream invoked");
+        Optional<StudentAgeTotals> totals = studentAggregates.current();
+        if (totals.isPresent()) {
+            StudentAgeTotals current = totals.get();
+            double result = current.nonZeroAgeCount() == 0 ? 0.0 : (double) current.ageSum() / current.nonZeroAgeCount();
+            logger.debug("The average age of the students was {}", result);
+            return result;
+        }
         List<Student> students = studentRepository.findAll();
         if (students.isEmpty()) {
             logger.error("Not found students to calculate average age");
@@ -159,6 +368,20 @@ public class StudentService implements ExceptionService, SynchronizationService
         return result;
     }
 
+    public EntityCacheStatistics getCacheStatistics() {
+        logger.info("Method getCacheStatistics invoked");
+        return entityCache.getStudentStatistics();
+    }
+
+    public StudentAggregatesConsistency checkAggregatesConsistency() {
+        logger.info("Method checkAggregatesConsistency invoked");
+        StudentAggregatesConsistency consistency = studentAggregates.checkConsistency();
+        if (!consistency.consistent()) {
+            logger.warn("Student aggregates are inconsistent: {}", consistency);
+        }
+        return consistency;
+    }
+
     public long calculateSum() {
         long start = System.currentTimeMillis();
         long n = 1_000_000;
@@ -169,91 +392,55 @@ public class StudentService implements ExceptionService, SynchronizationService
     }
 
 
-    public void printStudentsNameParallel() {
+    /**
+     * Вывод имен всех студентов фоновой задачей: студенты делятся на части по students.jobs.chunk-size
+     * существующих id, части выводятся параллельно, порядок между частями не сохраняется
+     */
+    public JobStatus printStudentsNameParallel() {
         logger.info("Method printStudentsNameParallel invoked");
-
-        List<Student> students = studentRepository.findAll();
-        logger.debug("Total students: {}", students.size());
-
-        if(students.size() < 6) {
-            logger.debug("Minimum of 6 students in the list");
-            return;
-        }
-
-        String first = students.get(0).getName();
-        String second = students.get(1).getName();
-        String third = students.get(2).getName();
-        String fourth = students.get(3).getName();
-        String fifth = students.get(4).getName();
-        String sixth = students.get(5).getName();
-
-        System.out.println(first);
-        System.out.println(second);
-
-        Thread thread1 = new Thread(() -> {
-            logger.info("The tread first is started");
-            System.out.println(third);
-            System.out.println(fourth);
+        return jobService.submit("print-parallel", studentChunks(), chunk -> {
+            List<String> names = studentRepository.findNamesByIdBetween(chunk.fromId(), chunk.toId());
+            names.forEach(printSink::print);
+            return names.size();
         });
-        thread1.start();
-
-        Thread thread2 = new Thread(() -> {
-            logger.info("The tread second is started");
-            System.out.println(fifth);
-            System.out.println(sixth);
-        });
-        thread2.start();
-
-        try {
-            logger.info("Waiting for parallel threads to finish");
-            thread1.join();
-            thread2.join();
-        } catch (InterruptedException e) {
-            logger.warn("The threads were interrupted", e);
-            Thread.currentThread().interrupt();
-        }
     }
 
-    public void printStudentNamesSynchronized() {
+    /**
+     * То же, что printStudentsNameParallel, но каждое имя выводится с именем потока
+     */
+    public JobStatus printStudentNamesSynchronized() {
         logger.info("Method printStudentNamesSynchronized invoked");
-        List<Student> students = studentRepository.findAll();
-
-        if (students.size() < 6) {
-            logger.debug("Minimum of six students in the list");
-            return;
-        }
-
-        String first = students.get(0).getName();
-        String second = students.get(1).getName();
-        String third = students.get(2).getName();
-        String fourth = students.get(3).getName();
-        String fifth = students.get(4).getName();
-        String sixth = students.get(5).getName();
-
-        printSynchronized(first, "Основной поток");
-        printSynchronized(second, "Основной поток");
-
-        Thread thread1 = new Thread(() -> {
-            printSynchronized(third, "Параллельный поток 1");
-            printSynchronized(fourth, "Параллельный поток 1");
+        return jobService.submit("print-synchronized", studentChunks(), chunk -> {
+            List<String> names = studentRepository.findNamesByIdBetween(chunk.fromId(), chunk.toId());
+            names.forEach(name -> printSynchronized(name, Thread.currentThread().getName()));
+            return names.size();
         });
-        thread1.start();
+    }
 
-        Thread thread2 = new Thread(() -> {
-            printSynchronized(fifth, "Параллельный поток 2");
-            printSynchronized(sixth, "Параллельный поток 2");
-        });
-        thread2.start();
+    @Override
+    public PrintSink printSink() {
+        return printSink;
+    }
 
-      try {
-          logger.info("Waiting for synchronized threads to finish");
-          thread1.join();
-          thread2.join();
-      } catch (InterruptedException e) {
-          logger.warn("The threads were interrupted", e);
-          Thread.currentThread().interrupt();
-      }
+    public PrintSinkStatistics getPrintSinkStatistics() {
+        logger.info("Method getPrintSinkStatistics invoked");
+        return printSink.getStatistics();
+    }
 
+    private List<JobService.Chunk> studentChunks() {
+        StudentIdRange range = studentRepository.findIdRange();
+        if (range == null || range.minId() == null) {
+            return List.of();
+        }
+        List<JobService.Chunk> chunks = new ArrayList<>();
+        long after = range.minId() - 1;
+        while (after < range.maxId()) {
+            Long to = studentRepository.findIdAfter(after, jobChunkSize - 1);
+            long end = to == null ? range.maxId() : to;
+            chunks.add(new JobService.Chunk(after + 1, end));
+            after = end;
+        }
+        logger.debug("Students with IDs {}-{} split into {} chunks", range.minId(), range.maxId(), chunks.size());
+        return chunks;
     }
 }
-
@@ -1,16 +1,14 @@
 package ru.hogwarts.school.service;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+/**
+ * Вывод из нескольких потоков без общего монитора: строки передаются в PrintSink,
+ * который сохраняет порядок строк каждого потока
+ */
 public interface SynchronizationService {
-    Object flag = new Object();
 
-    Logger logger = LoggerFactory.getLogger(SynchronizationService.class);
+    PrintSink printSink();
 
     default void printSynchronized(String studentName, String threadName) {
-        synchronized (flag)  {
-            logger.info("{}: {}", threadName, studentName);
-        }
+        printSink().print(threadName + ": " + studentName);
     }
 }
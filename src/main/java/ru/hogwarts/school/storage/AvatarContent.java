@@ -0,0 +1,29 @@
+package ru.hogwarts.school.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Содержимое аватара, открытое для чтения
+ */
+public interface AvatarContent {
+
+    long size();
+
+    long lastModified();
+
+    /**
+     * Файл на диске целиком совпадающий с содержимым, если он есть. Нужен для отдачи через sendfile
+     */
+    Optional<Path> file();
+
+    /**
+     * Передает count байт начиная с position без промежуточного буфера в куче
+     */
+    void transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    InputStream newInputStream() throws IOException;
+}
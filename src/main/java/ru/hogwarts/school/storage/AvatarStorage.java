@@ -0,0 +1,32 @@
+package ru.hogwarts.school.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Хранилище содержимого аватаров. Реализация выбирается свойством students.avatar.storage:
+ * flat (по умолчанию) - файл на каждое изображение, segment - упакованные сегментные файлы.
+ * Адрес (location), возвращаемый store, сохраняется в базе и передается в open и prepareDelete
+ */
+public interface AvatarStorage {
+
+    /**
+     * Переносит подготовленный временный файл в хранилище под ключом key (контрольная сумма содержимого)
+     * @return адрес содержимого
+     */
+    String store(String key, String extension, Path stagedFile) throws IOException;
+
+    AvatarContent open(String location) throws IOException;
+
+    /**
+     * Готовит удаление в рамках транзакции: содержимое перестает быть доступным новым записям,
+     * окончательно удаляется при commit и восстанавливается при rollback
+     */
+    PendingDeletion prepareDelete(String location) throws IOException;
+
+    interface PendingDeletion {
+        void commit() throws IOException;
+
+        void rollback() throws IOException;
+    }
+}
@@ -0,0 +1,116 @@
+package ru.hogwarts.school.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Файл на каждое уникальное изображение: avatars/blobs/xx/checksum.ext. Адрес - путь к файлу
+ */
+@Component
+@ConditionalOnProperty(name = "students.avatar.storage", havingValue = "flat", matchIfMissing = true)
+public class FlatFileAvatarStorage implements AvatarStorage {
+    private final Path blobsDir;
+
+    private static final Logger logger = LoggerFactory.getLogger(FlatFileAvatarStorage.class);
+
+    public FlatFileAvatarStorage(@Value("${students.avatar.dir.path}") String avatarsDir) {
+        this.blobsDir = Path.of(avatarsDir, "blobs");
+    }
+
+    @Override
+    public String store(String key, String extension, Path stagedFile) throws IOException {
+        Path blobPath = blobsDir.resolve(key.substring(0, 2)).resolve(key + "." + extension);
+        Files.createDirectories(blobPath.getParent());
+        Files.move(stagedFile, blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Avatar content {} stored in {}", key, blobPath);
+        return blobPath.toString();
+    }
+
+    @Override
+    public AvatarContent open(String location) throws IOException {
+        return new FileContent(Path.of(location));
+    }
+
+    /**
+     * Файл сразу переименовывается, чтобы параллельная загрузка того же содержимого создала новый,
+     * и удаляется только после коммита. При откате имя восстанавливается
+     */
+    @Override
+    public PendingDeletion prepareDelete(String location) throws IOException {
+        Path path = Path.of(location);
+        Path tombstone = path.resolveSibling(path.getFileName() + ".deleted");
+        Files.move(path, tombstone, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new PendingDeletion() {
+            @Override
+            public void commit() throws IOException {
+                Files.deleteIfExists(tombstone);
+                logger.debug("Avatar file {} deleted", path);
+            }
+
+            @Override
+            public void rollback() throws IOException {
+                Files.move(tombstone, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+        };
+    }
+
+    static final class FileContent implements AvatarContent {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        FileContent(Path path) throws IOException {
+            this.path = path;
+            this.size = Files.size(path);
+            this.lastModified = Files.getLastModifiedTime(path).toMillis();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public Optional<Path> file() {
+            return Optional.of(path);
+        }
+
+        @Override
+        public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long remaining = count;
+                while (remaining > 0) {
+                    long sent = channel.transferTo(position, remaining, target);
+                    if (sent <= 0) {
+                        throw new IOException("Unexpected end of file " + path + " at position " + position);
+                    }
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        }
+
+        @Override
+        public InputStream newInputStream() throws IOException {
+            return Files.newInputStream(path);
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package ru.hogwarts.school.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Упаковывает аватары в сегментные файлы avatars/segments/segment-NNNNNNNN.dat, в которые только дописываются записи.
+ * Запись - заголовок (тип, поколение, время, ключ, длина) и содержимое, удаление - запись-надгробие.
+ * Заполненный сегмент закрывается оглавлением в конце файла, по оглавлениям при старте восстанавливается
+ * индекс ключ - смещение, открытый сегмент при этом просматривается по заголовкам.
+ * Чтение идет через отображенные в память сегменты, фоновый компактор переписывает живые записи
+ * из сегментов, где накопилось много перезаписанных и удаленных данных, и удаляет их.
+ * Адрес содержимого: segment:поколение/ключ.расширение. Поколение не меняется при компактировании
+ * и защищает от удаления содержимого, которое после удаления загрузили заново
+ */
+@Component
+@ConditionalOnProperty(name = "students.avatar.storage", havingValue = "segment")
+public class SegmentAvatarStorage implements AvatarStorage {
+    static final String LOCATION_PREFIX = "segment:";
+
+    private static final int RECORD_MAGIC = 0x41565452;
+    private static final int FOOTER_MAGIC = 0x41564658;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES + Long.BYTES + Short.BYTES + Long.BYTES;
+    private static final int FOOTER_ENTRY_SIZE = 1 + Long.BYTES * 4 + Short.BYTES;
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final Path segmentsDir;
+    private final long maxSegmentSize;
+    private final double compactionGarbageRatio;
+    private final boolean fsync;
+    private final FlatFileAvatarStorage legacyStorage;
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    private Segment active;
+    private long nextGeneration = 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentAvatarStorage.class);
+
+    public SegmentAvatarStorage(@Value("${students.avatar.dir.path}") String avatarsDir,
+                                @Value("${students.avatar.segment.max-size:268435456}") long maxSegmentSize,
+                                @Value("${students.avatar.segment.compaction.garbage-ratio:0.5}") double compactionGarbageRatio,
+                                @Value("${students.avatar.segment.fsync:true}") boolean fsync) {
+        if (maxSegmentSize <= 0 || maxSegmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + Integer.MAX_VALUE + " bytes");
+        }
+        this.segmentsDir = Path.of(avatarsDir, "segments");
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactionGarbageRatio = compactionGarbageRatio;
+        this.fsync = fsync;
+        this.legacyStorage = new FlatFileAvatarStorage(avatarsDir);
+        try {
+            load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open avatar segments in " + segmentsDir, e);
+        }
+    }
+
+    @Override
+    public String store(String key, String extension, Path stagedFile) throws IOException {
+        long dataLength = Files.size(stagedFile);
+        long generation;
+        try (FileChannel source = FileChannel.open(stagedFile, StandardOpenOption.READ)) {
+            synchronized (writeLock) {
+                generation = nextGeneration++;
+                RecordInfo record = append(PUT, key, generation, System.currentTimeMillis(), dataLength,
+                        (target, position) -> copy(source, target, position, dataLength));
+                index(record, active);
+                logger.debug("Avatar content {} appended to segment {}", key, active.id);
+            }
+        }
+        Files.deleteIfExists(stagedFile);
+        return LOCATION_PREFIX + generation + "/" + key + "." + extension;
+    }
+
+    @Override
+    public AvatarContent open(String location) throws IOException {
+        if (!location.startsWith(LOCATION_PREFIX)) {
+            return legacyStorage.open(location);
+        }
+        IndexEntry entry = index.get(Location.parse(location).key());
+        if (entry == null) {
+            throw new NoSuchFileException(location);
+        }
+        return new SegmentContent(entry.segment().slice(entry.dataOffset(), entry.dataLength()), entry.createdAt());
+    }
+
+    /**
+     * Записи сегмента неизменяемы, поэтому надгробие дописывается только при коммите, а откат ничего не делает
+     */
+    @Override
+    public PendingDeletion prepareDelete(String location) throws IOException {
+        if (!location.startsWith(LOCATION_PREFIX)) {
+            return legacyStorage.prepareDelete(location);
+        }
+        Location parsed = Location.parse(location);
+        return new PendingDeletion() {
+            @Override
+            public void commit() throws IOException {
+                delete(parsed.key(), parsed.generation());
+            }
+
+            @Override
+            public void rollback() {
+            }
+        };
+    }
+
+    private void delete(String key, long generation) throws IOException {
+        synchronized (writeLock) {
+            IndexEntry current = index.get(key);
+            if (current == null || current.generation() != generation) {
+                logger.debug("Avatar content {} generation {} is already gone", key, generation);
+                return;
+            }
+            RecordInfo tombstone = append(DELETE, key, generation, System.currentTimeMillis(), 0, (target, position) -> {
+            });
+            index.remove(key);
+            current.segment().garbageBytes += current.recordSize();
+            active.garbageBytes += tombstone.recordSize();
+            active.tombstones.add(tombstone);
+        }
+        logger.debug("Avatar content {} deleted", key);
+    }
+
+    /**
+     * Переписывает живые записи закрытых сегментов с долей мусора не меньше
+     * students.avatar.segment.compaction.garbage-ratio в открытый сегмент и удаляет освободившиеся файлы
+     */
+    @Scheduled(fixedDelayString = "${students.avatar.segment.compaction.interval:PT10M}",
+            initialDelayString = "${students.avatar.segment.compaction.interval:PT10M}")
+    public void compact() {
+        for (Segment segment : segments.values()) {
+            if (segment.sealed && segment.garbageRatio() >= compactionGarbageRatio) {
+                try {
+                    compact(segment);
+                } catch (IOException e) {
+                    logger.error("Failed to compact avatar segment {}", segment.id, e);
+                }
+            }
+        }
+    }
+
+    void compact(Segment segment) throws IOException {
+        long start = System.currentTimeMillis();
+        int moved = 0;
+        for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+            if (entry.getValue().segment() != segment) {
+                continue;
+            }
+            synchronized (writeLock) {
+                IndexEntry live = index.get(entry.getKey());
+                if (live == null || live.segment() != segment) {
+                    continue;
+                }
+                ByteBuffer data = segment.slice(live.dataOffset(), live.dataLength());
+                RecordInfo record = append(PUT, entry.getKey(), live.generation(), live.createdAt(), live.dataLength(),
+                        (target, position) -> write(target, data, position));
+                index.put(entry.getKey(), new IndexEntry(active, live.generation(), live.createdAt(),
+                        record.dataOffset(), record.dataLength(), record.recordSize()));
+                moved++;
+            }
+        }
+        synchronized (writeLock) {
+            if (segments.firstKey() < segment.id) {
+                for (RecordInfo tombstone : segment.tombstones) {
+                    RecordInfo copy = append(DELETE, tombstone.key(), tombstone.generation(), tombstone.createdAt(), 0,
+                            (target, position) -> {
+                            });
+                    active.garbageBytes += copy.recordSize();
+                    active.tombstones.add(copy);
+                }
+            }
+            segments.remove(segment.id);
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+        logger.info("Avatar segment {} compacted in {} ms: {} live records moved, {} bytes reclaimed",
+                segment.id, System.currentTimeMillis() - start, moved, segment.garbageBytes);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(segmentsDir);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(segmentsDir)) {
+            files = stream.filter(path -> path.getFileName().toString().matches("segment-\\d+\\.dat"))
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int id = Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+            Segment segment = new Segment(id, file);
+            List<RecordInfo> records = segment.readFooter();
+            if (records == null) {
+                records = segment.scan();
+            }
+            for (RecordInfo record : records) {
+                replay(record, segment);
+            }
+            segments.put(id, segment);
+        }
+        for (Segment segment : segments.values()) {
+            if (!segment.sealed && segment != segments.lastEntry().getValue()) {
+                segment.seal();
+            }
+        }
+        active = segments.isEmpty() || segments.lastEntry().getValue().sealed
+                ? createSegment()
+                : segments.lastEntry().getValue();
+        logger.info("{} avatar segments opened, {} avatars indexed", segments.size(), index.size());
+    }
+
+    private void replay(RecordInfo record, Segment segment) {
+        nextGeneration = Math.max(nextGeneration, record.generation() + 1);
+        if (record.type() == PUT) {
+            index(record, segment);
+            return;
+        }
+        segment.garbageBytes += record.recordSize();
+        segment.tombstones.add(record);
+        IndexEntry current = index.get(record.key());
+        if (current != null && current.generation() == record.generation()) {
+            index.remove(record.key());
+            current.segment().garbageBytes += current.recordSize();
+        }
+    }
+
+    private void index(RecordInfo record, Segment segment) {
+        IndexEntry previous = index.put(record.key(), new IndexEntry(segment, record.generation(), record.createdAt(),
+                record.dataOffset(), record.dataLength(), record.recordSize()));
+        if (previous != null) {
+            previous.segment().garbageBytes += previous.recordSize();
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment segment = new Segment(id, segmentsDir.resolve("segment-%08d.dat".formatted(id)));
+        segments.put(id, segment);
+        logger.debug("Avatar segment {} created", id);
+        return segment;
+    }
+
+    private RecordInfo append(byte type, String key, long generation, long createdAt, long dataLength,
+                              DataWriter data) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long recordSize = HEADER_SIZE + keyBytes.length + dataLength;
+        if (active.size > 0 && active.size + recordSize > maxSegmentSize) {
+            active.seal();
+            active = createSegment();
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length)
+                .putInt(RECORD_MAGIC)
+                .put(type)
+                .putLong(generation)
+                .putLong(createdAt)
+                .putShort((short) keyBytes.length)
+                .put(keyBytes)
+                .putLong(dataLength)
+                .flip();
+        long position = active.size;
+        write(active.channel, header, position);
+        long dataOffset = position + HEADER_SIZE + keyBytes.length;
+        data.write(active.channel, dataOffset);
+        if (fsync) {
+            active.channel.force(false);
+        }
+        active.size = dataOffset + dataLength;
+        RecordInfo record = new RecordInfo(type, key, generation, createdAt, dataOffset, dataLength);
+        active.records.add(record);
+        return record;
+    }
+
+    private static void copy(FileChannel source, FileChannel target, long position, long count) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            long transferred = target.transferFrom(source, position + copied, count - copied);
+            if (transferred <= 0) {
+                throw new IOException("Staged avatar file is shorter than " + count + " bytes");
+            }
+            copied += transferred;
+        }
+    }
+
+    private static void write(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += target.write(buffer, position);
+        }
+    }
+
+    @FunctionalInterface
+    private interface DataWriter {
+        void write(FileChannel target, long position) throws IOException;
+    }
+
+    private record Location(long generation, String key) {
+        static Location parse(String location) {
+            String value = location.substring(LOCATION_PREFIX.length());
+            int slash = value.indexOf('/');
+            String name = value.substring(slash + 1);
+            int dot = name.lastIndexOf('.');
+            return new Location(Long.parseLong(value.substring(0, slash)), dot == -1 ? name : name.substring(0, dot));
+        }
+    }
+
+    private record RecordInfo(byte type, String key, long generation, long createdAt, long dataOffset, long dataLength) {
+        long recordSize() {
+            return HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + dataLength;
+        }
+    }
+
+    private record IndexEntry(Segment segment, long generation, long createdAt,
+                              long dataOffset, long dataLength, long recordSize) {
+    }
+
+    static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final List<RecordInfo> tombstones = new ArrayList<>();
+        List<RecordInfo> records = new ArrayList<>();
+        volatile long size;
+        volatile long garbageBytes;
+        volatile boolean sealed;
+        volatile MappedByteBuffer mapped;
+
+        Segment(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        double garbageRatio() {
+            return size == 0 ? 0 : (double) garbageBytes / size;
+        }
+
+        /**
+         * Закрытый сегмент отображен в память целиком, из открытого отображается только запрошенная область
+         */
+        ByteBuffer slice(long offset, long length) throws IOException {
+            MappedByteBuffer buffer = mapped;
+            if (buffer != null) {
+                return buffer.slice((int) offset, (int) length);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+
+        /**
+         * Дописывает оглавление: тип, поколение, время, смещение и длину содержимого и ключ каждой записи,
+         * затем смещение оглавления, число записей и маркер
+         */
+        void seal() throws IOException {
+            int keysLength = records.stream().mapToInt(record -> record.key().getBytes(StandardCharsets.UTF_8).length).sum();
+            ByteBuffer footer = ByteBuffer.allocate(records.size() * FOOTER_ENTRY_SIZE + keysLength + TRAILER_SIZE);
+            for (RecordInfo record : records) {
+                byte[] key = record.key().getBytes(StandardCharsets.UTF_8);
+                footer.put(record.type())
+                        .putLong(record.generation())
+                        .putLong(record.createdAt())
+                        .putLong(record.dataOffset())
+                        .putLong(record.dataLength())
+                        .putShort((short) key.length)
+                        .put(key);
+            }
+            footer.putLong(size).putInt(records.size()).putInt(FOOTER_MAGIC).flip();
+            write(channel, footer, size);
+            channel.force(true);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            sealed = true;
+            records = null;
+            logger.debug("Avatar segment {} sealed at {} bytes", id, size);
+        }
+
+        /**
+         * @return записи из оглавления или null, если сегмент не закрыт
+         */
+        List<RecordInfo> readFooter() throws IOException {
+            long fileSize = channel.size();
+            if (fileSize < TRAILER_SIZE) {
+                return null;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            read(trailer, fileSize - TRAILER_SIZE);
+            long footerStart = trailer.getLong();
+            int count = trailer.getInt();
+            if (trailer.getInt() != FOOTER_MAGIC || footerStart < 0 || footerStart > fileSize - TRAILER_SIZE || count < 0) {
+                return null;
+            }
+            ByteBuffer footer = ByteBuffer.allocate((int) (fileSize - TRAILER_SIZE - footerStart));
+            read(footer, footerStart);
+            List<RecordInfo> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte type = footer.get();
+                long generation = footer.getLong();
+                long createdAt = footer.getLong();
+                long dataOffset = footer.getLong();
+                long dataLength = footer.getLong();
+                byte[] key = new byte[footer.getShort()];
+                footer.get(key);
+                result.add(new RecordInfo(type, new String(key, StandardCharsets.UTF_8), generation, createdAt, dataOffset, dataLength));
+            }
+            size = footerStart;
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            sealed = true;
+            records = null;
+            return result;
+        }
+
+        /**
+         * Читает заголовки открытого сегмента подряд. Недописанная при сбое последняя запись отрезается
+         */
+        List<RecordInfo> scan() throws IOException {
+            long fileSize = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + Short.MAX_VALUE);
+            while (position + HEADER_SIZE <= fileSize) {
+                header.clear().limit(Integer.BYTES + 1 + Long.BYTES * 2 + Short.BYTES);
+                read(header, position);
+                if (header.getInt() != RECORD_MAGIC) {
+                    break;
+                }
+                byte type = header.get();
+                long generation = header.getLong();
+                long createdAt = header.getLong();
+                int keyLength = header.getShort();
+                if (keyLength < 0 || position + HEADER_SIZE + keyLength > fileSize) {
+                    break;
+                }
+                header.clear().limit(keyLength + Long.BYTES);
+                read(header, position + HEADER_SIZE - Long.BYTES);
+                byte[] key = new byte[keyLength];
+                header.get(key);
+                long dataLength = header.getLong();
+                long dataOffset = position + HEADER_SIZE + keyLength;
+                if (dataLength < 0 || dataOffset + dataLength > fileSize) {
+                    break;
+                }
+                records.add(new RecordInfo(type, new String(key, StandardCharsets.UTF_8), generation, createdAt, dataOffset, dataLength));
+                position = dataOffset + dataLength;
+            }
+            if (position < fileSize) {
+                logger.warn("Avatar segment {} truncated from {} to {} bytes after incomplete write", id, fileSize, position);
+                channel.truncate(position);
+            }
+            size = position;
+            return records;
+        }
+
+        private void read(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of avatar segment " + path);
+                }
+                position += read;
+            }
+            buffer.flip();
+        }
+    }
+
+    private static final class SegmentContent implements AvatarContent {
+        private final ByteBuffer data;
+        private final long lastModified;
+
+        SegmentContent(ByteBuffer data, long lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public long size() {
+            return data.capacity();
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public Optional<Path> file() {
+            return Optional.empty();
+        }
+
+        @Override
+        public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            ByteBuffer region = data.slice((int) position, (int) count);
+            while (region.hasRemaining()) {
+                target.write(region);
+            }
+        }
+
+        @Override
+        public InputStream newInputStream() {
+            ByteBuffer buffer = data.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) {
+                    if (!buffer.hasRemaining()) {
+                        return length == 0 ? 0 : -1;
+                    }
+                    int count = Math.min(length, buffer.remaining());
+                    buffer.get(bytes, offset, count);
+                    return count;
+                }
+
+                @Override
+                public int available() {
+                    return buffer.remaining();
+                }
+            };
+        }
+    }
+}
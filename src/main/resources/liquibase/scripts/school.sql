@@ -5,3 +5,39 @@ create index student_name_index on student (name);
 
 -- changeset azhuravlev:2
 create index faculty_name_color_index on faculty (color, name);
+
+-- changeset azhuravlev:3
+alter table avatar add column checksum varchar(64);
+
+-- changeset azhuravlev:4
+create table avatar_preview (
+    id bigserial primary key,
+    checksum varchar(64) not null,
+    width integer not null,
+    height integer not null,
+    media_type varchar(255),
+    data bytea not null,
+    constraint avatar_preview_checksum_width_unique unique (checksum, width)
+);
+
+-- changeset azhuravlev:5
+create table avatar_blob (
+    checksum varchar(64) primary key,
+    file_path varchar(255) not null,
+    file_size bigint not null,
+    media_type varchar(255),
+    ref_count integer not null
+);
+
+-- changeset azhuravlev:6
+create index student_name_lower_prefix_index on student (lower(name) varchar_pattern_ops);
+
+-- changeset azhuravlev:7
+create index student_age_id_index on student (age, id);
+
+-- changeset azhuravlev:8
+create index student_faculty_id_index on student (faculty_id, id);
+create index student_faculty_id_age_index on student (faculty_id, age, id);
+
+-- changeset azhuravlev:9
+alter table avatar add constraint avatar_student_id_unique unique (student_id);
@@ -0,0 +1,166 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {"server.port=8080", "students.avatar.dir.path=target/test-avatars"})
+class AvatarControllerMockMvcTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private AvatarRepository avatarRepository;
+
+    @MockitoBean
+    private StudentRepository studentRepository;
+
+    private Student createStudent(long id, String name, int age) {
+        Student expectedStudent = new Student();
+        expectedStudent.setId(id);
+        expectedStudent.setName(name);
+        expectedStudent.setAge(age);
+        return expectedStudent;
+    }
+
+    private Avatar createStoredAvatar(Student student, byte[] content) throws Exception {
+        Path filePath = Path.of("target/test-avatars", student.getId() + ".png");
+        Files.createDirectories(filePath.getParent());
+        Files.write(filePath, content);
+
+        Avatar avatar = new Avatar();
+        avatar.setStudent(student);
+        avatar.setFilePath(filePath.toString());
+        avatar.setFileSize(content.length);
+        avatar.setMediaType("image/png");
+        avatar.setChecksum(sha256(content));
+        when(avatarRepository.findByStudentId(student.getId())).thenReturn(Optional.of(avatar));
+        return avatar;
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    @Test
+    @DisplayName("Загружает новый аватар потоком и сохраняет размер и контрольную сумму")
+    void whenUploadNewAvatar_ThenFileIsWrittenAndAvatarIsSaved() throws Exception {
+        Student student = createStudent(1, "Harry", 11);
+        byte[] content = "avatar-content".getBytes();
+        MockMultipartFile file = new MockMultipartFile("avatar", "harry.png", "image/png", content);
+
+        when(studentRepository.findById(student.getId())).thenReturn(Optional.of(student));
+        when(avatarRepository.updateByStudentId(anyLong(), anyString(), anyLong(), anyString(), anyString())).thenReturn(0);
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/avatar/%d/avatar".formatted(student.getId())).file(file))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        ArgumentCaptor<Avatar> captor = ArgumentCaptor.forClass(Avatar.class);
+        verify(avatarRepository).save(captor.capture());
+        Avatar saved = captor.getValue();
+        assertEquals(content.length, saved.getFileSize());
+        assertEquals(sha256(content), saved.getChecksum());
+        assertNull(saved.getData());
+        assertArrayEquals(content, Files.readAllBytes(Path.of(saved.getFilePath())));
+    }
+
+    @Test
+    @DisplayName("Повторная загрузка обновляет существующий аватар одним запросом")
+    void whenUploadExistingAvatar_ThenAvatarIsUpdatedInPlace() throws Exception {
+        Student student = createStudent(2, "Ron", 11);
+        byte[] content = "another-content".getBytes();
+        MockMultipartFile file = new MockMultipartFile("avatar", "ron.png", "image/png", content);
+
+        when(studentRepository.findById(student.getId())).thenReturn(Optional.of(student));
+        when(avatarRepository.updateByStudentId(anyLong(), anyString(), anyLong(), anyString(), anyString())).thenReturn(1);
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/avatar/%d/avatar".formatted(student.getId())).file(file))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        verify(avatarRepository).updateByStudentId(eq(student.getId()), anyString(), eq((long) content.length),
+                eq("image/png"), eq(sha256(content)));
+        verify(avatarRepository, never()).save(any(Avatar.class));
+        verify(avatarRepository, never()).findByStudentId(anyLong());
+    }
+
+    @Test
+    @DisplayName("Отдает аватар с ETag и возвращает 304 для неизмененного файла")
+    void whenDownloadAvatarWithMatchingETag_ThenNotModified() throws Exception {
+        Student student = createStudent(3, "Hermione", 11);
+        byte[] content = "0123456789".getBytes();
+        Avatar avatar = createStoredAvatar(student, content);
+        String etag = "\"" + avatar.getChecksum() + "\"";
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/avatar/%d/avatar".formatted(student.getId())))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string("ETag", etag))
+                .andExpect(MockMvcResultMatchers.header().string("Accept-Ranges", "bytes"))
+                .andExpect(MockMvcResultMatchers.content().bytes(content));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/avatar/%d/avatar".formatted(student.getId()))
+                        .header("If-None-Match", etag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.content().bytes(new byte[0]));
+    }
+
+    @Test
+    @DisplayName("Отдает один и несколько диапазонов аватара")
+    void whenDownloadAvatarWithRange_ThenPartialContent() throws Exception {
+        Student student = createStudent(4, "Neville", 11);
+        byte[] content = "0123456789".getBytes();
+        createStoredAvatar(student, content);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/avatar/%d/avatar".formatted(student.getId()))
+                        .header("Range", "bytes=2-5"))
+                .andExpect(MockMvcResultMatchers.status().isPartialContent())
+                .andExpect(MockMvcResultMatchers.header().string("Content-Range", "bytes 2-5/10"))
+                .andExpect(MockMvcResultMatchers.content().string("2345"));
+
+        String multipart = mockMvc.perform(MockMvcRequestBuilders.get("/avatar/%d/avatar".formatted(student.getId()))
+                        .header("Range", "bytes=0-1,-2"))
+                .andExpect(MockMvcResultMatchers.status().isPartialContent())
+                .andExpect(MockMvcResultMatchers.header().string("Content-Type",
+                        org.hamcrest.Matchers.startsWith("multipart/byteranges")))
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(multipart.contains("Content-Range: bytes 0-1/10\r\n\r\n01"));
+        assertTrue(multipart.contains("Content-Range: bytes 8-9/10\r\n\r\n89"));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/avatar/%d/avatar".formatted(student.getId()))
+                        .header("Range", "bytes=20-30"))
+                .andExpect(MockMvcResultMatchers.status().isRequestedRangeNotSatisfiable())
+                .andExpect(MockMvcResultMatchers.header().string("Content-Range", "bytes */10"));
+    }
+
+    @Test
+    @DisplayName("Возвращает 404 если у студента нет аватара")
+    void whenDownloadMissingAvatar_ThenNotFound() throws Exception {
+        when(avatarRepository.findByStudentId(5L)).thenReturn(Optional.empty());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/avatar/5/avatar"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+}
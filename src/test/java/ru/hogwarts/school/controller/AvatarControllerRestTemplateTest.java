@@ -0,0 +1,444 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import ru.hogwarts.school.dto.AvatarImportReport;
+import ru.hogwarts.school.dto.AvatarImportResult;
+import ru.hogwarts.school.dto.AvatarMetadata;
+import ru.hogwarts.school.dto.CacheStatistics;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.AvatarBlob;
+import ru.hogwarts.school.repository.AvatarBlobRepository;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+import ru.hogwarts.school.service.AvatarBlobStore;
+import ru.hogwarts.school.service.AvatarImportEntry;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"students.avatar.dir.path=target/test-avatars", "students.avatar.import.batch-size=2"})
+class AvatarControllerRestTemplateTest {
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private AvatarRepository avatarRepository;
+    @Autowired
+    private AvatarPreviewRepository avatarPreviewRepository;
+    @Autowired
+    private AvatarBlobRepository avatarBlobRepository;
+    @Autowired
+    private FacultyRepository facultyRepository;
+    @Autowired
+    private AvatarBlobStore avatarBlobStore;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    @AfterEach
+    void cleanUp() {
+        avatarPreviewRepository.deleteAll();
+        avatarRepository.deleteAll();
+        avatarBlobRepository.deleteAll();
+        studentRepository.deleteAll();
+        facultyRepository.deleteAll();
+    }
+
+    private String getUrl(String path) {
+        return "http://localhost:%d%s".formatted(port, path);
+    }
+
+    private Student addStudent(String name, int age) {
+        Student student = new Student();
+        student.setName(name);
+        student.setAge(age);
+        return studentRepository.save(student);
+    }
+
+    private byte[] createPng(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private void uploadAvatar(Student student, byte[] content, String fileName) {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("avatar", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return fileName;
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        ResponseEntity<String> response = restTemplate.postForEntity(
+                getUrl("/avatar/%d/avatar".formatted(student.getId())), new HttpEntity<>(body, headers), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+    }
+
+    private AvatarImportReport importZip(Map<String, byte[]> entries) throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/zip"));
+        ResponseEntity<AvatarImportReport> response = restTemplate.postForEntity(getUrl("/avatar/import"),
+                new HttpEntity<>(archive.toByteArray(), headers), AvatarImportReport.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody();
+    }
+
+    private Map<String, byte[]> exportZip(String query) throws Exception {
+        ResponseEntity<byte[]> response = restTemplate.getForEntity(getUrl("/avatar/export" + query), byte[].class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(response.getBody()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private BufferedImage awaitPreview(Student student, int width, int expectedWidth) throws Exception {
+        String url = getUrl("/avatar/%d/avatar/preview?width=%d".formatted(student.getId(), width));
+        BufferedImage image = null;
+        for (int attempt = 0; attempt < 50; attempt++) {
+            ResponseEntity<byte[]> response = restTemplate.getForEntity(url, byte[].class);
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            image = ImageIO.read(new ByteArrayInputStream(response.getBody()));
+            if (image.getWidth() == expectedWidth) {
+                return image;
+            }
+            Thread.sleep(100);
+        }
+        return image;
+    }
+
+    @Test
+    @DisplayName("Генерирует превью нескольких размеров в фоне и отдает наименьшее подходящее")
+    void whenUploadAvatar_ThenPreviewsAreGeneratedInBackground() throws Exception {
+        Student student = addStudent("Luna", 12);
+        byte[] content = createPng(400, 300);
+
+        uploadAvatar(student, content, "luna.png");
+
+        BufferedImage small = awaitPreview(student, 64, 64);
+        assertEquals(64, small.getWidth());
+        assertEquals(48, small.getHeight());
+
+        assertEquals(100, awaitPreview(student, 80, 100).getWidth());
+        assertEquals(256, awaitPreview(student, 1000, 256).getWidth());
+
+        CacheStatistics statistics = restTemplate.getForObject(getUrl("/avatar/preview-cache/stats"), CacheStatistics.class);
+        assertTrue(statistics.hitCount() > 0);
+        assertTrue(statistics.weightedSize() > 0);
+
+        ResponseEntity<byte[]> original = restTemplate.getForEntity(
+                getUrl("/avatar/%d/avatar".formatted(student.getId())), byte[].class);
+        assertArrayEquals(content, original.getBody());
+    }
+
+    @Test
+    @DisplayName("Одинаковые аватары хранятся в одном файле со счетчиком ссылок")
+    void whenUploadSameAvatarTwice_ThenContentIsStoredOnce() throws Exception {
+        Student first = addStudent("Fred", 14);
+        Student second = addStudent("George", 14);
+        byte[] crest = createPng(120, 120);
+
+        uploadAvatar(first, crest, "crest.png");
+        uploadAvatar(second, crest, "crest-copy.png");
+
+        String firstPath = avatarRepository.findByStudentId(first.getId()).orElseThrow().getFilePath();
+        String secondPath = avatarRepository.findByStudentId(second.getId()).orElseThrow().getFilePath();
+        assertEquals(firstPath, secondPath);
+        assertEquals(1, avatarBlobRepository.count());
+        AvatarBlob blob = avatarBlobRepository.findAll().get(0);
+        assertEquals(2, blob.getRefCount());
+
+        uploadAvatar(second, createPng(60, 60), "other.png");
+        assertEquals(1, avatarBlobRepository.findById(blob.getChecksum()).orElseThrow().getRefCount());
+
+        uploadAvatar(first, createPng(30, 30), "third.png");
+        assertTrue(avatarBlobRepository.findById(blob.getChecksum()).isEmpty());
+        assertFalse(Files.exists(Path.of(firstPath)));
+    }
+
+    @Test
+    @DisplayName("Параллельные первые загрузки для одного студента оставляют один аватар")
+    void whenFirstAvatarsAreUploadedConcurrently_ThenOneAvatarRemains() throws Exception {
+        Student student = addStudent("Luna", 13);
+        byte[] first = createPng(70, 70);
+        byte[] second = createPng(80, 80);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> firstUpload = executor.submit(() -> uploadAvatar(student, first, "first.png"));
+            Future<?> secondUpload = executor.submit(() -> uploadAvatar(student, second, "second.png"));
+            firstUpload.get(30, TimeUnit.SECONDS);
+            secondUpload.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, avatarRepository.count());
+        String checksum = avatarRepository.findByStudentId(student.getId()).orElseThrow().getChecksum();
+        List<AvatarBlob> blobs = avatarBlobRepository.findAll();
+        assertEquals(1, blobs.size());
+        assertEquals(checksum, blobs.get(0).getChecksum());
+        assertEquals(1, blobs.get(0).getRefCount());
+    }
+
+    @Test
+    @DisplayName("При откате загрузки перенесенное в хранилище содержимое удаляется")
+    void whenAcquireIsRolledBack_ThenStoredContentIsRemoved() throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        AvatarBlobStore.StagedFile staged = avatarBlobStore.stage(new ByteArrayInputStream(createPng(40, 40)));
+
+        String location = transactionTemplate.execute(status -> {
+            try {
+                String stored = avatarBlobStore.acquire(staged, "png", "image/png");
+                status.setRollbackOnly();
+                return stored;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        assertEquals(0, avatarBlobRepository.count());
+        assertFalse(Files.exists(Path.of(location)));
+        assertFalse(Files.exists(staged.tempFile()));
+    }
+
+    @Test
+    @DisplayName("Параллельная первая загрузка того же содержимого использует уже сохраненный файл")
+    void whenSameContentIsAcquiredConcurrently_ThenSecondUploadReusesIt() throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        byte[] content = createPng(40, 40);
+        CountDownLatch firstAcquired = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(() -> transactionTemplate.execute(status -> {
+                try {
+                    String stored = avatarBlobStore.acquire(avatarBlobStore.stage(new ByteArrayInputStream(content)),
+                            "png", "image/png");
+                    firstAcquired.countDown();
+                    Thread.sleep(200);
+                    return stored;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            assertTrue(firstAcquired.await(10, TimeUnit.SECONDS));
+
+            String second = transactionTemplate.execute(status -> {
+                try {
+                    return avatarBlobStore.acquire(avatarBlobStore.stage(new ByteArrayInputStream(content)),
+                            "png", "image/png");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            assertEquals(first.get(10, TimeUnit.SECONDS), second);
+            assertEquals(2, avatarBlobRepository.findAll().get(0).getRefCount());
+            assertTrue(Files.exists(Path.of(second)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Импорт не падает, если то же содержимое параллельно сохраняет одиночная загрузка")
+    void whenImportAcquiresContentInsertedConcurrently_ThenItReusesIt() throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        byte[] content = createPng(40, 40);
+        CountDownLatch firstAcquired = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(() -> transactionTemplate.execute(status -> {
+                try {
+                    String stored = avatarBlobStore.acquire(avatarBlobStore.stage(new ByteArrayInputStream(content)),
+                            "png", "image/png");
+                    firstAcquired.countDown();
+                    Thread.sleep(200);
+                    return stored;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            assertTrue(firstAcquired.await(10, TimeUnit.SECONDS));
+
+            AvatarBlobStore.StagedFile one = avatarBlobStore.stage(new ByteArrayInputStream(content));
+            AvatarBlobStore.StagedFile two = avatarBlobStore.stage(new ByteArrayInputStream(content));
+            Map<String, String> locations = transactionTemplate.execute(status -> {
+                try {
+                    return avatarBlobStore.acquireAll(List.of(
+                            new AvatarImportEntry("1.png", 1, "png", "image/png", one),
+                            new AvatarImportEntry("2.png", 2, "png", "image/png", two)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            assertEquals(first.get(10, TimeUnit.SECONDS), locations.get(one.checksum()));
+            assertEquals(3, avatarBlobRepository.findAll().get(0).getRefCount());
+            assertFalse(Files.exists(one.tempFile()));
+            assertFalse(Files.exists(two.tempFile()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Импортирует аватары из ZIP архива и возвращает результат по каждому элементу")
+    void whenImportZip_ThenEachEntryIsReported() throws Exception {
+        Student harry = addStudent("Harry", 11);
+        Student ron = addStudent("Ron", 11);
+        Student hermione = addStudent("Hermione", 11);
+        byte[] owl = createPng(50, 50);
+        uploadAvatar(hermione, owl, "owl.png");
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(harry.getId() + ".png", owl);
+        entries.put("photos/" + ron.getId() + ".png", createPng(40, 40));
+        entries.put(ron.getId() + ".jpg", createPng(41, 41));
+        entries.put("999999.png", createPng(42, 42));
+        entries.put("readme.txt", new byte[]{1, 2, 3});
+        entries.put(hermione.getId() + ".png", owl);
+
+        AvatarImportReport report = importZip(entries);
+
+        List<AvatarImportResult.Status> statuses = report.entries().stream().map(AvatarImportResult::status).toList();
+        assertEquals(List.of(AvatarImportResult.Status.IMPORTED, AvatarImportResult.Status.IMPORTED,
+                AvatarImportResult.Status.DUPLICATE_STUDENT, AvatarImportResult.Status.STUDENT_NOT_FOUND,
+                AvatarImportResult.Status.INVALID_NAME, AvatarImportResult.Status.UNCHANGED), statuses);
+        assertEquals(2L, report.summary().get(AvatarImportResult.Status.IMPORTED));
+        assertEquals(3, avatarRepository.count());
+        String checksum = avatarRepository.findByStudentId(hermione.getId()).orElseThrow().getChecksum();
+        assertEquals(2, avatarBlobRepository.findById(checksum).orElseThrow().getRefCount());
+
+        AvatarImportReport replaced = importZip(Map.of(harry.getId() + ".png", createPng(43, 43)));
+        assertEquals(AvatarImportResult.Status.IMPORTED, replaced.entries().get(0).status());
+        assertEquals(1, avatarBlobRepository.findById(checksum).orElseThrow().getRefCount());
+        ResponseEntity<byte[]> original = restTemplate.getForEntity(
+                getUrl("/avatar/%d/avatar".formatted(ron.getId())), byte[].class);
+        assertEquals(HttpStatus.OK, original.getStatusCode());
+        assertEquals(MediaType.IMAGE_PNG, original.getHeaders().getContentType());
+    }
+
+    @Test
+    @DisplayName("Экспортирует аватары в ZIP с фильтром по факультету и диапазону id")
+    void whenExportZip_ThenFilteredAvatarsAreStreamed() throws Exception {
+        Faculty gryffindor = facultyRepository.save(new Faculty(0, "Gryffindor", "red"));
+        Student neville = new Student();
+        neville.setName("Neville");
+        neville.setAge(11);
+        neville.setFaculty(gryffindor);
+        neville = studentRepository.save(neville);
+        Student luna = addStudent("Luna", 11);
+        Student cho = addStudent("Cho", 12);
+        byte[] nevilleAvatar = createPng(30, 30);
+        byte[] lunaAvatar = createPng(80, 80);
+        uploadAvatar(neville, nevilleAvatar, "neville.png");
+        uploadAvatar(luna, lunaAvatar, "luna.png");
+        uploadAvatar(cho, createPng(31, 31), "cho.png");
+
+        Map<String, byte[]> byFaculty = exportZip("?facultyId=" + gryffindor.getId());
+        assertEquals(List.of("originals/" + neville.getId() + ".png"), new ArrayList<>(byFaculty.keySet()));
+        assertArrayEquals(nevilleAvatar, byFaculty.get("originals/" + neville.getId() + ".png"));
+
+        Map<String, byte[]> byRange = exportZip("?fromId=%d&toId=%d".formatted(luna.getId(), cho.getId()));
+        assertEquals(List.of("originals/" + luna.getId() + ".png", "originals/" + cho.getId() + ".png"),
+                new ArrayList<>(byRange.keySet()));
+
+        awaitPreview(luna, 64, 64);
+        Map<String, byte[]> withPreviews = exportZip("?fromId=%1$d&toId=%1$d&content=ALL".formatted(luna.getId()));
+        assertEquals(List.of("originals/" + luna.getId() + ".png", "previews/" + luna.getId() + "-64.png",
+                "previews/" + luna.getId() + "-80.png"), new ArrayList<>(withPreviews.keySet()));
+        assertArrayEquals(lunaAvatar, withPreviews.get("originals/" + luna.getId() + ".png"));
+        byte[] preview = withPreviews.get("previews/" + luna.getId() + "-64.png");
+        assertEquals(64, ImageIO.read(new ByteArrayInputStream(preview)).getWidth());
+    }
+
+    @Test
+    @DisplayName("Постранично возвращает метаданные аватаров по номеру страницы и по ключу")
+    void whenGetAvatarPages_ThenMetadataIsReturned() throws Exception {
+        Student first = addStudent("Dean", 15);
+        Student second = addStudent("Seamus", 15);
+        Student third = addStudent("Lavender", 15);
+        uploadAvatar(first, createPng(20, 20), "dean.png");
+        uploadAvatar(second, createPng(21, 21), "seamus.png");
+        uploadAvatar(third, createPng(22, 22), "lavender.png");
+
+        AvatarMetadata[] page = restTemplate.getForObject(getUrl("/avatar/page?page=1&size=2"), AvatarMetadata[].class);
+        assertEquals(2, page.length);
+        assertEquals(first.getId(), page[0].studentId());
+        assertEquals(second.getId(), page[1].studentId());
+        assertEquals("image/png", page[0].mediaType());
+
+        AvatarMetadata[] next = restTemplate.getForObject(
+                getUrl("/avatar/page/seek?afterId=%d&size=2".formatted(page[1].id())), AvatarMetadata[].class);
+        assertEquals(1, next.length);
+        assertEquals(third.getId(), next[0].studentId());
+    }
+}
@@ -0,0 +1,138 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.dto.BatchOperation;
+import ru.hogwarts.school.dto.BatchOperation.Action;
+import ru.hogwarts.school.dto.BatchOperation.Target;
+import ru.hogwarts.school.dto.BatchOperationResult;
+import ru.hogwarts.school.dto.BatchOperationResult.Status;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class BatchControllerRestTemplateTest {
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private FacultyRepository facultyRepository;
+
+    @BeforeEach
+    void setUp() {
+        facultyRepository.deleteAll();
+        studentRepository.deleteAll();
+    }
+
+    private String getUrl(String path) {
+        return "http://localhost:%d%s".formatted(port, path);
+    }
+
+    private Student addStudent(String name, int age) {
+        Student student = new Student();
+        student.setName(name);
+        student.setAge(age);
+        return studentRepository.save(student);
+    }
+
+    private Faculty addFaculty(String name, String color) {
+        Faculty faculty = new Faculty();
+        faculty.setName(name);
+        faculty.setColor(color);
+        return facultyRepository.save(faculty);
+    }
+
+    @Test
+    @DisplayName("Выполняет смешанный пакет операций и возвращает результат каждой")
+    void whenExecuteMixedBatch_ThenEachOperationHasResult() throws Exception {
+        Faculty faculty = addFaculty("Gryffindor", "red");
+        Student edited = addStudent("Harry", 11);
+        Student removed = addStudent("Dudley", 12);
+        List<BatchOperation> operations = List.of(
+                new BatchOperation(Action.CREATE, Target.STUDENT, null, "Hermione", 12, faculty.getId(), null),
+                new BatchOperation(Action.UPDATE, Target.STUDENT, edited.getId(), "Harry Potter", 12, faculty.getId(), null),
+                new BatchOperation(Action.DELETE, Target.STUDENT, removed.getId(), null, null, null, null),
+                new BatchOperation(Action.DELETE, Target.STUDENT, -1L, null, null, null, null),
+                new BatchOperation(Action.UPDATE, Target.FACULTY, faculty.getId(), "Gryffindor", null, null, "scarlet"),
+                new BatchOperation(Action.CREATE, Target.STUDENT, null, "Ghost", 11, -1L, null),
+                new BatchOperation(Action.CREATE, Target.FACULTY, null, "Ravenclaw", null, null, "blue"));
+
+        ResponseEntity<BatchOperationResult[]> response = restTemplate.postForEntity(getUrl("/batch"), operations,
+                BatchOperationResult[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        List<Status> statuses = Arrays.stream(response.getBody()).map(BatchOperationResult::status).toList();
+        assertEquals(List.of(Status.CREATED, Status.UPDATED, Status.DELETED, Status.NOT_FOUND, Status.UPDATED,
+                Status.INVALID, Status.CREATED), statuses);
+
+        Long createdId = response.getBody()[0].id();
+        assertNotNull(createdId);
+        assertEquals("Hermione", studentRepository.findById(createdId).orElseThrow().getName());
+        Student editedAfter = studentRepository.findById(edited.getId()).orElseThrow();
+        assertEquals("Harry Potter", editedAfter.getName());
+        assertEquals(faculty.getId(), editedAfter.getFaculty().getId());
+        assertFalse(studentRepository.existsById(removed.getId()));
+        assertEquals("scarlet", facultyRepository.findById(faculty.getId()).orElseThrow().getColor());
+        assertEquals(2, facultyRepository.count());
+        assertEquals(2, restTemplate.getForObject(getUrl("/student/count"), Integer.class));
+    }
+
+    @Test
+    @DisplayName("Выполняет операции в порядке запроса")
+    void whenOperationsTouchSameIds_ThenTheyRunInRequestOrder() throws Exception {
+        Faculty faculty = addFaculty("Hufflepuff", "yellow");
+        Student student = addStudent("Cedric", 17);
+        List<BatchOperation> operations = List.of(
+                new BatchOperation(Action.DELETE, Target.STUDENT, student.getId(), null, null, null, null),
+                new BatchOperation(Action.UPDATE, Target.STUDENT, student.getId(), "Cedric Diggory", 17, null, null),
+                new BatchOperation(Action.DELETE, Target.FACULTY, faculty.getId(), null, null, null, null),
+                new BatchOperation(Action.CREATE, Target.STUDENT, null, "Hannah", 11, faculty.getId(), null));
+
+        BatchOperationResult[] results = restTemplate.postForObject(getUrl("/batch"), operations,
+                BatchOperationResult[].class);
+
+        assertEquals(List.of(Status.DELETED, Status.NOT_FOUND, Status.DELETED, Status.INVALID),
+                Arrays.stream(results).map(BatchOperationResult::status).toList());
+        assertEquals(0, studentRepository.count());
+        assertEquals(0, facultyRepository.count());
+    }
+
+    @Test
+    @DisplayName("Нарушение ограничений базы откатывает пакет и не раскрывает сообщение драйвера")
+    void whenBatchViolatesConstraint_ThenConflictWithFixedMessage() throws Exception {
+        List<BatchOperation> operations = List.of(
+                new BatchOperation(Action.CREATE, Target.STUDENT, null, "Hannah", 11, null, null),
+                new BatchOperation(Action.CREATE, Target.STUDENT, null, "x".repeat(300), 11, null, null));
+
+        ResponseEntity<String> response = restTemplate.postForEntity(getUrl("/batch"), operations, String.class);
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals(GlobalExceptionHandler.DATA_INTEGRITY_VIOLATION_MESSAGE, response.getBody());
+        assertEquals(0, studentRepository.count());
+    }
+
+    @Test
+    @DisplayName("Отклоняет пустой пакет")
+    void whenBatchIsEmpty_ThenBadRequest() throws Exception {
+        ResponseEntity<String> response = restTemplate.postForEntity(getUrl("/batch"), List.of(), String.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+}
@@ -9,23 +9,29 @@ import org.springframework.boot.test.context.SpringBootTest;
 
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
 
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.dto.FacultyNameStatistics;
+import ru.hogwarts.school.dto.KeysetPage;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.repository.FacultyRepository;
 import ru.hogwarts.school.repository.StudentRepository;
+import ru.hogwarts.school.service.FacultyNameLengths;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "students.entity-cache.enabled=true")
 class FacultyControllerRestTemplateTest {
     @LocalServerPort
     private int port;
@@ -35,11 +41,14 @@ class FacultyControllerRestTemplateTest {
     private FacultyRepository facultyRepository;
     @Autowired
     private StudentRepository studentRepository;
+    @Autowired
+    private FacultyNameLengths facultyNameLengths;
 
     @BeforeEach
     void setUp() {
         facultyRepository.deleteAll();
         studentRepository.deleteAll();
+        facultyNameLengths.reset();
     }
 
     private String getUrl(String path) {
@@ -253,4 +262,117 @@ class FacultyControllerRestTemplateTest {
             assertEquals(expectedFaculty.getId(), s.getFaculty().getId());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Отдает факультеты страницами по названию и выгружает их в NDJSON")
+    void whenGetFacultiesPageByName_ThenPagesFollowNameOrder() throws Exception {
+        Faculty slytherin = addFaculty("Slytherin", "green");
+        Faculty gryffindor = addFaculty("Gryffindor", "red");
+        Faculty hufflepuff = addFaculty("Hufflepuff", "yellow");
+
+        KeysetPage<Faculty> first = restTemplate.exchange(getUrl("/faculty/all/seek?sort=NAME&size=2"),
+                HttpMethod.GET, null, new ParameterizedTypeReference<KeysetPage<Faculty>>() {
+                }).getBody();
+        KeysetPage<Faculty> second = restTemplate.exchange(
+                getUrl("/faculty/all/seek?sort=NAME&size=2&cursor=" + first.nextCursor()),
+                HttpMethod.GET, null, new ParameterizedTypeReference<KeysetPage<Faculty>>() {
+                }).getBody();
+        String stream = restTemplate.getForObject(getUrl("/faculty/all/stream"), String.class);
+
+        assertEquals(List.of(gryffindor.getId(), hufflepuff.getId()), first.items().stream().map(Faculty::getId).toList());
+        assertEquals(List.of(slytherin.getId()), second.items().stream().map(Faculty::getId).toList());
+        assertNull(second.nextCursor());
+        assertEquals(3, stream.lines().count());
+    }
+
+    @Test
+    @DisplayName("Закэшированный факультет сбрасывается при изменении и при добавлении студента")
+    void whenFacultyOrItsStudentsChange_ThenCachedFacultyIsRefreshed() throws Exception {
+        Faculty faculty = addFaculty("Hufflepuff", "yellow");
+        restTemplate.getForObject(getUrl("/faculty/" + faculty.getId()), Faculty.class);
+
+        faculty.setColor("black");
+        restTemplate.put(getUrl("/faculty"), faculty);
+        addStudentWithFaculty("Cedric", 17, faculty);
+        Faculty cached = restTemplate.getForObject(getUrl("/faculty/" + faculty.getId()), Faculty.class);
+        Student[] students = restTemplate.getForObject(getUrl("/faculty/%d/students".formatted(faculty.getId())),
+                Student[].class);
+
+        assertEquals("black", cached.getColor());
+        assertEquals(1, students.length);
+    }
+
+    @Test
+    @DisplayName("Студенты факультета выводятся только с include=students")
+    void whenGetFacultyWithInclude_ThenStudentsAreLoaded() throws Exception {
+        Faculty faculty = addFaculty("Ravenclaw", "blue");
+        addStudentWithFaculty("Luna", 14, faculty);
+        addStudentWithFaculty("Cho", 16, faculty);
+
+        Faculty withoutStudents = restTemplate.getForObject(getUrl("/faculty/" + faculty.getId()), Faculty.class);
+        Faculty withStudents = restTemplate.getForObject(
+                getUrl("/faculty/%d?include=students".formatted(faculty.getId())), Faculty.class);
+        Faculty[] all = restTemplate.getForObject(getUrl("/faculty/all"), Faculty[].class);
+        Faculty[] allWithStudents = restTemplate.getForObject(getUrl("/faculty/all?include=students"), Faculty[].class);
+        Faculty[] filtered = restTemplate.getForObject(
+                getUrl("/faculty/filter?color=blue&include=students"), Faculty[].class);
+
+        assertNull(withoutStudents.getStudents());
+        assertEquals(2, withStudents.getStudents().size());
+        assertNull(all[0].getStudents());
+        assertEquals(1, allWithStudents.length);
+        assertEquals(2, allWithStudents[0].getStudents().size());
+        assertEquals(2, filtered[0].getStudents().size());
+    }
+
+    @Test
+    @DisplayName("Отдает студентов факультета страницами по возрасту с фильтром и считает их")
+    void whenGetStudentsPageOfFaculty_ThenPagesAreFilteredByAge() throws Exception {
+        Faculty faculty = addFaculty("Gryffindor", "red");
+        Faculty other = addFaculty("Slytherin", "green");
+        Student ginny = addStudentWithFaculty("Ginny", 13, faculty);
+        Student ron = addStudentWithFaculty("Ron", 15, faculty);
+        Student harry = addStudentWithFaculty("Harry", 15, faculty);
+        addStudentWithFaculty("Fred", 19, faculty);
+        addStudentWithFaculty("Draco", 15, other);
+
+        String url = "/faculty/%d/students/page?sort=AGE&size=2&maxAge=17".formatted(faculty.getId());
+        KeysetPage<Student> first = restTemplate.exchange(getUrl(url), HttpMethod.GET, null,
+                new ParameterizedTypeReference<KeysetPage<Student>>() {
+                }).getBody();
+        KeysetPage<Student> second = restTemplate.exchange(getUrl(url + "&cursor=" + first.nextCursor()),
+                HttpMethod.GET, null, new ParameterizedTypeReference<KeysetPage<Student>>() {
+                }).getBody();
+        Long count = restTemplate.getForObject(
+                getUrl("/faculty/%d/students/count?minAge=14&maxAge=17".formatted(faculty.getId())), Long.class);
+        ResponseEntity<String> missing = restTemplate.getForEntity(getUrl("/faculty/-1/students/page"), String.class);
+
+        assertEquals(List.of(ginny.getId(), ron.getId()), first.items().stream().map(Student::getId).toList());
+        assertEquals(List.of(harry.getId()), second.items().stream().map(Student::getId).toList());
+        assertNull(second.nextCursor());
+        assertEquals(2, count);
+        assertEquals(HttpStatus.NOT_FOUND, missing.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("Считает статистику названий факультетов и обновляет ее при изменениях")
+    void whenFacultiesChange_ThenNameStatisticsFollow() throws Exception {
+        Faculty gryffindor = addFaculty("Gryffindor", "red");
+        Faculty slytherin = addFaculty("Slytherin", "green");
+        addFaculty("Hufflepuff", "yellow");
+
+        FacultyNameStatistics before = restTemplate.getForObject(getUrl("/faculty/name-stats"), FacultyNameStatistics.class);
+        gryffindor.setName("Gryffindor Tower");
+        restTemplate.put(getUrl("/faculty"), gryffindor);
+        restTemplate.delete(getUrl("/faculty/" + slytherin.getId()));
+        FacultyNameStatistics after = restTemplate.getForObject(getUrl("/faculty/name-stats"), FacultyNameStatistics.class);
+        String longest = restTemplate.getForObject(getUrl("/faculty/longest-faculty-name"), String.class);
+
+        assertEquals("Gryffindor", before.longestName());
+        assertEquals("Slytherin", before.shortestName());
+        assertEquals(Map.of(9, 1, 10, 2), before.lengthDistribution());
+        assertEquals("Gryffindor Tower", longest);
+        assertEquals("Hufflepuff", after.shortestName());
+        assertEquals(2, after.faculties());
+    }
+}
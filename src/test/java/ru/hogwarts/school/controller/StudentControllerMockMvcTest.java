@@ -197,20 +197,20 @@ class StudentControllerMockMvcTest {
     }
 
     @Test
-    @DisplayName("Выводит сообщение об успешном вызове эндпоинта")
+    @DisplayName("Запускает фоновую задачу вывода имен и сразу отвечает 202")
     void testPrintStudentsNameParallel() throws Exception {
-        String message = "Вывод имен студентов в параллельном режиме завершён";
         mockMvc.perform(MockMvcRequestBuilders.get("/student/print-parallel"))
-                .andExpect(MockMvcResultMatchers.status().isOk())
-                .andExpect(MockMvcResultMatchers.content().string(message));
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andExpect(MockMvcResultMatchers.header().exists("Location"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.type").value("print-parallel"));
     }
 
     @Test
-    @DisplayName("Выводит сообщение об успешном вызове эндпоинта")
+    @DisplayName("Запускает фоновую задачу синхронизированного вывода имен и сразу отвечает 202")
     void testPrintStudentsNameSynchronized() throws Exception {
-        String message = "Вывод имен студентов в синхронизированном режиме завершён";
         mockMvc.perform(MockMvcRequestBuilders.get("/student/print-synchronized"))
-                .andExpect(MockMvcResultMatchers.status().isOk())
-                .andExpect(MockMvcResultMatchers.content().string(message));
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andExpect(MockMvcResultMatchers.header().exists("Location"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.type").value("print-synchronized"));
     }
 }
\ No newline at end of file
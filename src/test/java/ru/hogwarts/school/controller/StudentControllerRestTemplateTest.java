@@ -1,5 +1,6 @@
 package ru.hogwarts.school.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -8,24 +9,53 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.dto.EntityCacheStatistics;
+import ru.hogwarts.school.dto.JobResult;
+import ru.hogwarts.school.dto.JobStatus;
+import ru.hogwarts.school.dto.KeysetPage;
+import ru.hogwarts.school.dto.StudentAgeTotals;
+import ru.hogwarts.school.dto.StudentAggregatesConsistency;
+import ru.hogwarts.school.dto.StudentImportError;
+import ru.hogwarts.school.dto.StudentImportReport;
+import ru.hogwarts.school.event.StudentEventBridge;
+import ru.hogwarts.school.event.StudentState;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.repository.FacultyRepository;
 import ru.hogwarts.school.repository.StudentRepository;
-
+import ru.hogwarts.school.service.StudentAggregates;
+import ru.hogwarts.school.service.StudentImportService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @ExtendWith(SpringExtension.class)
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"students.age-index.enabled=true", "students.entity-cache.enabled=true", "students.jobs.chunk-size=3"})
 class StudentControllerRestTemplateTest {
     @LocalServerPort
     private int port;
@@ -35,6 +65,18 @@ class StudentControllerRestTemplateTest {
     private StudentRepository studentRepository;
     @Autowired
     private FacultyRepository facultyRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private StudentImportService studentImportService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private StudentEventBridge studentEventBridge;
+    @Autowired
+    private StudentAggregates studentAggregates;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     @BeforeEach
     void setUp() {
@@ -238,4 +280,308 @@ class StudentControllerRestTemplateTest {
         assertNotNull(faculty.getStudents());
         assertEquals(expectedFaculty.getId(), faculty.getId());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Находит имена по префиксу без учета регистра постранично")
+    void whenFindNamesByPrefix_ThenNamesArePagedInOrder() throws Exception {
+        addStudent("Harry", 11);
+        addStudent("harold", 12);
+        addStudent("Hermione", 11);
+        addStudent("Ron", 11);
+
+        ResponseEntity<String[]> firstPage = restTemplate.getForEntity(
+                getUrl("/student/names-start-with?prefix=HAR&page=1&size=1"), String[].class);
+        ResponseEntity<String[]> secondPage = restTemplate.getForEntity(
+                getUrl("/student/names-start-with?prefix=HAR&page=2&size=1"), String[].class);
+
+        assertEquals(HttpStatus.OK, firstPage.getStatusCode());
+        assertArrayEquals(new String[]{"harold"}, firstPage.getBody());
+        assertArrayEquals(new String[]{"Harry"}, secondPage.getBody());
+    }
+
+    @Test
+    @DisplayName("Находит все имена на букву и возвращает их в верхнем регистре по алфавиту")
+    void whenFindNamesBySymbol_ThenAllMatchingNamesAreReturned() throws Exception {
+        addStudent("Harry", 11);
+        addStudent("hermione", 11);
+        addStudent("Ron", 11);
+
+        ResponseEntity<String[]> response = restTemplate.getForEntity(
+                getUrl("/student/names-start-with-symbol?symbol=h"), String[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new String[]{"HARRY", "HERMIONE"}, response.getBody());
+    }
+
+    @Test
+    @DisplayName("Ищет % и _ в префиксе буквально и отклоняет пустой префикс")
+    void whenPrefixContainsWildcards_ThenTheyAreMatchedLiterally() throws Exception {
+        addStudent("50%_off", 20);
+        addStudent("50 and more", 20);
+
+        ResponseEntity<String[]> response = restTemplate.getForEntity(
+                getUrl("/student/names-start-with?prefix={prefix}"), String[].class, "50%_");
+        ResponseEntity<String> blank = restTemplate.getForEntity(
+                getUrl("/student/names-start-with?prefix= "), String.class);
+
+        assertArrayEquals(new String[]{"50%_off"}, response.getBody());
+        assertEquals(HttpStatus.BAD_REQUEST, blank.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("Количество и средний возраст считаются по агрегатам, которые совпадают с базой")
+    void whenStudentsChange_ThenAggregatesFollow() throws Exception {
+        addStudent("first", 10);
+        addStudent("second", 0);
+        Student third = addStudent("third", 20);
+        third.setAge(32);
+        studentRepository.save(third);
+        studentRepository.deleteById(addStudent("removed", 50).getId());
+
+        assertEquals(3, restTemplate.getForObject(getUrl("/student/count"), Integer.class));
+        assertEquals(14.0, restTemplate.getForObject(getUrl("/student/average"), Double.class));
+        assertEquals(21.0, restTemplate.getForObject(getUrl("/student/average-stream"), Double.class));
+
+        StudentAggregatesConsistency consistency = restTemplate.getForObject(
+                getUrl("/student/aggregates/consistency"), StudentAggregatesConsistency.class);
+        assertTrue(consistency.consistent());
+        assertEquals(consistency.database(), consistency.memory());
+    }
+
+    @Test
+    @DisplayName("Сверка не перезаписывает агрегаты, пока транзакция со студентами не завершилась")
+    void whenStudentTransactionIsInFlight_ThenReconcileKeepsAggregates() throws Exception {
+        addStudent("first", 10);
+        studentAggregates.reconcile();
+        StudentAgeTotals drifted = studentAggregates.current().orElseThrow().plus(7);
+        studentAggregates.onStudentChanged(null, new StudentState(0, "ghost", 7, null));
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        CountDownLatch flushed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                studentRepository.saveAndFlush(createStudent("second", 20));
+                flushed.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            assertTrue(flushed.await(10, TimeUnit.SECONDS));
+
+            studentAggregates.reconcile();
+            assertEquals(drifted, studentAggregates.current().orElseThrow());
+
+            release.countDown();
+            writer.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        studentAggregates.reconcile();
+        assertEquals(new StudentAgeTotals(2, 30, 2), studentAggregates.current().orElseThrow());
+    }
+
+    @Test
+    @DisplayName("Фильтр по диапазону возрастов отдает страницы по возрасту и id и считает студентов")
+    void whenFilterByAgeRangeWithPage_ThenPageIsOrderedByAgeAndId() throws Exception {
+        Student older = addStudent("older", 14);
+        Student first = addStudent("first", 12);
+        Student second = addStudent("second", 12);
+        addStudent("outside", 20);
+        Student moved = addStudent("moved", 20);
+        moved.setAge(13);
+        studentRepository.save(moved);
+
+        Student[] firstPage = restTemplate.getForObject(
+                getUrl("/student/filter?startAge=12&endAge=14&page=1&size=3"), Student[].class);
+        Student[] secondPage = restTemplate.getForObject(
+                getUrl("/student/filter?startAge=12&endAge=14&page=2&size=3"), Student[].class);
+
+        assertEquals(List.of(first.getId(), second.getId(), moved.getId()),
+                Arrays.stream(firstPage).map(Student::getId).toList());
+        assertEquals(List.of(older.getId()), Arrays.stream(secondPage).map(Student::getId).toList());
+        assertEquals(4L, restTemplate.getForObject(getUrl("/student/filter/count?startAge=12&endAge=14"), Long.class));
+        assertEquals(HttpStatus.BAD_REQUEST, restTemplate.getForEntity(
+                getUrl("/student/filter?age=12&page=0"), String.class).getStatusCode());
+    }
+
+    @Test
+    @DisplayName("Отдает студентов страницами по ключу сортировки и курсору")
+    void whenGetStudentsPageByAge_ThenCursorContinuesAfterLastStudent() throws Exception {
+        Student oldest = addStudent("oldest", 30);
+        Student youngest = addStudent("youngest", 10);
+        Student middle = addStudent("middle", 20);
+        Student sameAge = addStudent("sameAge", 20);
+
+        KeysetPage<Student> first = getStudentsPage("/student/all/seek?sort=AGE&size=2");
+        KeysetPage<Student> second = getStudentsPage("/student/all/seek?sort=AGE&size=2&cursor=" + first.nextCursor());
+        KeysetPage<Student> last = getStudentsPage("/student/all/seek?sort=AGE&size=2&cursor=" + second.nextCursor());
+
+        assertEquals(List.of(youngest.getId(), middle.getId()), first.items().stream().map(Student::getId).toList());
+        assertEquals(List.of(sameAge.getId(), oldest.getId()), second.items().stream().map(Student::getId).toList());
+        assertTrue(last.items().isEmpty());
+        assertNull(last.nextCursor());
+        assertEquals(HttpStatus.BAD_REQUEST, restTemplate.getForEntity(
+                getUrl("/student/all/seek?cursor=broken"), String.class).getStatusCode());
+    }
+
+    @Test
+    @DisplayName("Выгружает всех студентов в NDJSON по одному на строку")
+    void whenStreamAllStudents_ThenEachStudentIsOnItsOwnLine() throws Exception {
+        Faculty faculty = addFaculty("nameFaculty", "color");
+        Student first = addStudentWithFaculty("first", 11, faculty);
+        Student second = addStudent("second", 12);
+
+        ResponseEntity<String> response = restTemplate.getForEntity(getUrl("/student/all/stream"), String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(MediaType.APPLICATION_NDJSON, response.getHeaders().getContentType());
+        List<String> lines = response.getBody().lines().toList();
+        assertEquals(2, lines.size());
+        assertEquals(first.getId(), objectMapper.readValue(lines.get(0), Student.class).getId());
+        assertEquals(second.getName(), objectMapper.readValue(lines.get(1), Student.class).getName());
+    }
+
+    private KeysetPage<Student> getStudentsPage(String path) {
+        return restTemplate.exchange(getUrl(path), HttpMethod.GET, null,
+                new ParameterizedTypeReference<KeysetPage<Student>>() {
+                }).getBody();
+    }
+
+    @Test
+    @DisplayName("Импортирует студентов из CSV и NDJSON и сообщает об ошибках строк")
+    void whenImportStudents_ThenValidRowsAreInsertedAndErrorsReported() throws Exception {
+        Faculty faculty = addFaculty("Gryffindor", "red");
+        String csv = """
+                name,age,faculty
+                Harry,11,gryffindor
+                "Weasley, Ron",11,
+                Nobody,-1,
+                Draco,11,Slytherin
+                """;
+        String ndjson = """
+                {"name":"Hermione","age":12,"faculty":"Gryffindor"}
+                {"name":"","age":12}
+                """;
+
+        StudentImportReport csvReport = importStudents(csv, "text/csv");
+        StudentImportReport ndjsonReport = importStudents(ndjson, MediaType.APPLICATION_NDJSON_VALUE);
+
+        assertEquals(2, csvReport.imported());
+        assertEquals(2, csvReport.failed());
+        assertEquals(List.of(4L, 5L), csvReport.errors().stream().map(StudentImportError::line).toList());
+        assertEquals(1, ndjsonReport.imported());
+        assertEquals(2L, ndjsonReport.errors().get(0).line());
+
+        List<Student> students = studentRepository.findAll();
+        assertEquals(3, students.size());
+        assertTrue(students.stream().anyMatch(student -> "Weasley, Ron".equals(student.getName())
+                && student.getFaculty() == null));
+        assertEquals(2, students.stream().filter(student -> student.getFaculty() != null
+                && student.getFaculty().getId() == faculty.getId()).count());
+        assertEquals(3, restTemplate.getForObject(getUrl("/student/count"), Integer.class));
+    }
+
+    @Test
+    @DisplayName("Оборванная загрузка не вставляет недочитанный пакет")
+    void whenImportBodyBreaks_ThenPendingBatchIsNotInserted() {
+        InputStream rows = new ByteArrayInputStream("Harry,11\nRon,11\n".getBytes(StandardCharsets.UTF_8));
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+
+        assertThrows(IOException.class, () -> studentImportService.importStudents(
+                new SequenceInputStream(rows, broken), StudentImportService.Format.CSV));
+
+        assertEquals(0, studentRepository.count());
+    }
+
+    private StudentImportReport importStudents(String body, String contentType) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(contentType));
+        return restTemplate.postForObject(getUrl("/student/import"), new HttpEntity<>(body, headers),
+                StudentImportReport.class);
+    }
+
+    @Test
+    @DisplayName("Повторный поиск студента берется из кэша, изменение студента сбрасывает запись")
+    void whenStudentIsReadTwiceAndEdited_ThenCacheHitsAndInvalidates() throws Exception {
+        Student student = addStudent("Neville", 11);
+        EntityCacheStatistics before = restTemplate.getForObject(getUrl("/student/cache/stats"), EntityCacheStatistics.class);
+
+        restTemplate.getForObject(getUrl("/student/" + student.getId()), Student.class);
+        restTemplate.getForObject(getUrl("/student/" + student.getId()), Student.class);
+        student.setName("Neville Longbottom");
+        restTemplate.put(getUrl("/student"), student);
+        Student afterEdit = restTemplate.getForObject(getUrl("/student/" + student.getId()), Student.class);
+
+        EntityCacheStatistics after = restTemplate.getForObject(getUrl("/student/cache/stats"), EntityCacheStatistics.class);
+        assertEquals("Neville Longbottom", afterEdit.getName());
+        assertEquals(1, after.hitCount() - before.hitCount());
+        assertEquals(2, after.missCount() - before.missCount());
+        assertTrue(after.estimatedSize() >= 1);
+        assertEquals(100_000, after.maximumSize());
+    }
+
+    @Test
+    @DisplayName("Вывод имен выполняется фоновой задачей, результат доступен по ссылке из ответа")
+    void whenPrintStudentNames_ThenJobIsAcceptedAndCompletes() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            addStudent("Student" + i, 11 + i);
+        }
+
+        ResponseEntity<JobStatus> accepted = restTemplate.getForEntity(getUrl("/student/print-synchronized"), JobStatus.class);
+        JobStatus status = accepted.getBody();
+        for (int attempt = 0; attempt < 100 && !status.finished(); attempt++) {
+            Thread.sleep(50);
+            status = restTemplate.getForObject(getUrl(accepted.getHeaders().getLocation().getPath()), JobStatus.class);
+        }
+        JobResult result = restTemplate.getForObject(getUrl("/jobs/%d/result".formatted(status.id())), JobResult.class);
+
+        assertEquals(HttpStatus.ACCEPTED, accepted.getStatusCode());
+        assertEquals(JobStatus.State.COMPLETED, status.state());
+        assertEquals(status.totalChunks(), status.completedChunks());
+        assertEquals(7, result.processedItems());
+    }
+
+    @Test
+    @DisplayName("Части задачи строятся по существующим id, а не по диапазону между минимальным и максимальным")
+    void whenStudentIdsAreSparse_ThenChunksFollowExistingIds() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            addStudent("Student" + i, 11 + i);
+        }
+        jdbcTemplate.update("insert into student (id, name, age) values (?, ?, ?)", 1_000_000_000L, "Peeves", 300);
+        studentEventBridge.publishReloadRequired();
+
+        JobStatus status = restTemplate.getForObject(getUrl("/student/print-parallel"), JobStatus.class);
+        for (int attempt = 0; attempt < 100 && !status.finished(); attempt++) {
+            Thread.sleep(50);
+            status = restTemplate.getForObject(getUrl("/jobs/" + status.id()), JobStatus.class);
+        }
+
+        assertEquals(JobStatus.State.COMPLETED, status.state());
+        assertEquals(2, status.totalChunks());
+        assertEquals(5, status.processedItems());
+    }
+
+    @Test
+    @DisplayName("Создание факультета не сбрасывает закэшированных студентов")
+    void whenFacultyIsCreated_ThenCachedStudentsStay() throws Exception {
+        Student student = addStudent("Luna", 13);
+        restTemplate.getForObject(getUrl("/student/" + student.getId()), Student.class);
+        EntityCacheStatistics before = restTemplate.getForObject(getUrl("/student/cache/stats"), EntityCacheStatistics.class);
+
+        restTemplate.postForObject(getUrl("/faculty"), createFaculty("Ravenclaw", "blue"), Faculty.class);
+        restTemplate.getForObject(getUrl("/student/" + student.getId()), Student.class);
+
+        EntityCacheStatistics after = restTemplate.getForObject(getUrl("/student/cache/stats"), EntityCacheStatistics.class);
+        assertEquals(1, after.hitCount() - before.hitCount());
+        assertEquals(0, after.missCount() - before.missCount());
+    }
+}
@@ -0,0 +1,94 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.exception.ImageTooLargeException;
+import ru.hogwarts.school.model.AvatarPreview;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
+import ru.hogwarts.school.storage.AvatarContent;
+import ru.hogwarts.school.storage.AvatarStorage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AvatarPreviewServiceTest {
+    private final AvatarPreviewService avatarPreviewService = new AvatarPreviewService(null, null, null, null,
+            List.of(64, 100), 100, 2_500_000, 1, 10, Duration.ofHours(1));
+
+    @AfterEach
+    void shutdown() {
+        avatarPreviewService.shutdown();
+    }
+
+    private ByteArrayInputStream createPng(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Строит превью по прореженному изображению с пропорциями исходника")
+    void whenLargeImage_ThenPreviewsKeepSourceProportions() throws IOException {
+        List<AvatarPreview> previews = avatarPreviewService.generatePreviews(createPng(2000, 1000), "test.png",
+                "png", "image/png", List.of(64, 100));
+
+        assertEquals(2, previews.size());
+        assertEquals(64, previews.get(0).getWidth());
+        assertEquals(32, previews.get(0).getHeight());
+        assertEquals(100, previews.get(1).getWidth());
+        assertEquals(50, previews.get(1).getHeight());
+        assertEquals(100, ImageIO.read(new ByteArrayInputStream(previews.get(1).getData())).getWidth());
+    }
+
+    @Test
+    @DisplayName("Отклоняет изображение больше лимита пикселей до декодирования")
+    void whenImageExceedsPixelLimit_ThenImageTooLargeExceptionIsThrown() throws IOException {
+        ByteArrayInputStream png = createPng(2000, 1300);
+
+        assertThrows(ImageTooLargeException.class,
+                () -> avatarPreviewService.generatePreviews(png, "bomb.png", "png", "image/png", List.of(64)));
+    }
+
+    @Test
+    @DisplayName("Прореживает не сильнее чем до двух пикселей исходника на пиксель превью")
+    void whenSubsamplingFactorCalculated_ThenTwiceTheTargetWidthIsKept() {
+        assertEquals(30, AvatarPreviewService.subsamplingFactor(6000, 100));
+        assertEquals(1, AvatarPreviewService.subsamplingFactor(150, 100));
+        assertEquals(1, AvatarPreviewService.subsamplingFactor(80, 256));
+    }
+
+    @Test
+    @DisplayName("Не декодирует повторно изображение, превью которого не удалось построить")
+    void whenPreviewGenerationFails_ThenSameChecksumIsNotQueuedAgain() throws Exception {
+        AvatarPreviewRepository avatarPreviewRepository = mock(AvatarPreviewRepository.class);
+        AvatarStorage avatarStorage = mock(AvatarStorage.class);
+        AvatarContent content = mock(AvatarContent.class);
+        when(avatarStorage.open("broken.png")).thenReturn(content);
+        when(content.newInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        AvatarPreviewService service = new AvatarPreviewService(null, avatarPreviewRepository, avatarStorage, null,
+                List.of(64), 64, 2_500_000, 1, 10, Duration.ofHours(1));
+        AvatarUploadedEvent event = new AvatarUploadedEvent(1L, "checksum", "broken.png", "image/png", "png");
+        try {
+            service.schedule(event);
+            verify(avatarStorage, timeout(5000)).open("broken.png");
+            Thread.sleep(200);
+
+            service.schedule(event);
+            Thread.sleep(200);
+
+            verify(avatarStorage, times(1)).open("broken.png");
+        } finally {
+            service.shutdown();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.dto.JobStatus;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobServiceTest {
+    private final JobService jobService = new JobService(4, 2, 10);
+
+    @AfterEach
+    void shutdown() {
+        jobService.shutdown();
+    }
+
+    private List<JobService.Chunk> chunks(int count) {
+        return LongStream.range(0, count).mapToObj(i -> new JobService.Chunk(i, i)).toList();
+    }
+
+    private JobStatus await(long id) throws InterruptedException {
+        JobStatus status = jobService.getStatus(id);
+        for (int attempt = 0; attempt < 200 && !status.finished(); attempt++) {
+            Thread.sleep(10);
+            status = jobService.getStatus(id);
+        }
+        return status;
+    }
+
+    @Test
+    @DisplayName("Выполняет у задачи не больше заданного числа частей одновременно")
+    void whenJobHasManyChunks_ThenParallelismIsLimited() throws InterruptedException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        JobStatus submitted = jobService.submit("test", chunks(20), chunk -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return 3;
+        });
+        JobStatus status = await(submitted.id());
+
+        assertEquals(JobStatus.State.COMPLETED, status.state());
+        assertEquals(20, status.completedChunks());
+        assertEquals(60, status.processedItems());
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    @DisplayName("После отмены новые части не запускаются")
+    void whenJobIsCancelled_ThenRemainingChunksAreSkipped() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        JobStatus submitted = jobService.submit("test", chunks(20), chunk -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        JobStatus cancelling = jobService.cancel(submitted.id());
+        release.countDown();
+        JobStatus status = await(submitted.id());
+
+        assertEquals(JobStatus.State.CANCELLING, cancelling.state());
+        assertEquals(JobStatus.State.CANCELLED, status.state());
+        assertTrue(status.completedChunks() <= 2);
+    }
+
+    @Test
+    @DisplayName("Ошибка части завершает задачу с ошибкой")
+    void whenChunkFails_ThenJobFails() throws InterruptedException {
+        JobStatus submitted = jobService.submit("test", chunks(5), chunk -> {
+            throw new IllegalStateException("broken chunk");
+        });
+        JobStatus status = await(submitted.id());
+
+        assertEquals(JobStatus.State.FAILED, status.state());
+        assertEquals("broken chunk", status.error());
+    }
+
+    @Test
+    @DisplayName("Error в части тоже завершает задачу с ошибкой")
+    void whenChunkThrowsError_ThenJobFails() throws InterruptedException {
+        JobStatus submitted = jobService.submit("test", chunks(5), chunk -> {
+            throw new AssertionError("broken invariant");
+        });
+        JobStatus status = await(submitted.id());
+
+        assertEquals(JobStatus.State.FAILED, status.state());
+        assertEquals("broken invariant", status.error());
+    }
+}
@@ -0,0 +1,88 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.dto.PrintSinkStatistics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrintSinkTest {
+
+    private List<Thread> startProducers(PrintSink printSink, int producers, int lines) {
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < lines; i++) {
+                    printSink.print(producer + ":" + i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    @Test
+    @DisplayName("Выводит все строки и сохраняет порядок строк каждого потока")
+    void whenManyProducersPrint_ThenEachProducerOrderIsKept() throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintSink printSink = new PrintSink(64, PrintSink.Overflow.BLOCK, 1, new PrintStream(out, true));
+
+        for (Thread thread : startProducers(printSink, 4, 5_000)) {
+            thread.join();
+        }
+        printSink.shutdown();
+
+        Map<String, Integer> lastByProducer = new HashMap<>();
+        List<String> lines = out.toString().lines().toList();
+        for (String line : lines) {
+            String[] parts = line.split(":");
+            int index = Integer.parseInt(parts[1]);
+            assertEquals(lastByProducer.getOrDefault(parts[0], -1) + 1, index);
+            lastByProducer.put(parts[0], index);
+        }
+        assertEquals(20_000, lines.size());
+        assertEquals(20_000, printSink.getStatistics().written());
+        assertEquals(0, printSink.getStatistics().dropped());
+    }
+
+    @Test
+    @DisplayName("При заполненном буфере в режиме DROP строки отбрасываются без ожидания")
+    void whenBufferIsFullAndOverflowIsDrop_ThenLinesAreDropped() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        PrintSink printSink = new PrintSink(8, PrintSink.Overflow.DROP, 1, new PrintStream(stalled));
+
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            accepted += printSink.print("line " + i) ? 1 : 0;
+        }
+        release.countDown();
+        printSink.shutdown();
+        PrintSinkStatistics statistics = printSink.getStatistics();
+
+        assertTrue(statistics.dropped() > 0);
+        assertEquals(100, accepted + statistics.dropped());
+        assertEquals(accepted, statistics.written());
+    }
+}
@@ -0,0 +1,32 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.dto.StudentName;
+import ru.hogwarts.school.event.StudentState;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StudentNameIndexTest {
+    private final StudentRepository studentRepository = mock(StudentRepository.class);
+    private final StudentNameIndex studentNameIndex = new StudentNameIndex(studentRepository);
+
+    @Test
+    @DisplayName("Изменения, пришедшие во время перестроения, не теряются")
+    void whenStudentChangesDuringRebuild_ThenChangeIsKept() {
+        when(studentRepository.findAllNames()).thenAnswer(invocation -> {
+            studentNameIndex.onStudentChanged(null, new StudentState(2, "Hermione", 12, null));
+            studentNameIndex.onStudentChanged(new StudentState(1, "Harry", 11, null), null);
+            return List.of(new StudentName(1, "Harry"));
+        });
+
+        studentNameIndex.rebuild();
+
+        assertEquals(List.of("Hermione"), studentNameIndex.findByPrefix("h", 0, 10));
+    }
+}
@@ -0,0 +1,109 @@
+package ru.hogwarts.school.storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentAvatarStorageTest {
+    @TempDir
+    private Path avatarsDir;
+
+    private SegmentAvatarStorage openStorage(long maxSegmentSize) {
+        return new SegmentAvatarStorage(avatarsDir.toString(), maxSegmentSize, 0.5, false);
+    }
+
+    private String store(SegmentAvatarStorage storage, String key, byte[] content) throws IOException {
+        Path staged = Files.createTempFile(avatarsDir, "staged-", ".upload");
+        Files.write(staged, content);
+        String location = storage.store(key, "png", staged);
+        assertFalse(Files.exists(staged));
+        return location;
+    }
+
+    private byte[] read(AvatarStorage storage, String location) throws IOException {
+        try (InputStream in = storage.open(location).newInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private byte[] content(int size, int seed) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) seed);
+        content[0] = (byte) (seed + 1);
+        return content;
+    }
+
+    @Test
+    @DisplayName("Читает сохраненное содержимое и восстанавливает индекс после перезапуска")
+    void whenReopen_ThenIndexIsRebuiltFromSegments() throws IOException {
+        SegmentAvatarStorage storage = openStorage(600);
+        String first = store(storage, "aaaa", content(400, 1));
+        String second = store(storage, "bbbb", content(400, 2));
+        String third = store(storage, "cccc", content(400, 3));
+        assertEquals(3, storage.segmentCount());
+        assertTrue(first.startsWith("segment:") && first.endsWith("/aaaa.png"));
+        assertEquals(400, storage.open(second).size());
+        storage.close();
+
+        SegmentAvatarStorage reopened = openStorage(600);
+        assertArrayEquals(content(400, 1), read(reopened, first));
+        assertArrayEquals(content(400, 2), read(reopened, second));
+        assertArrayEquals(content(400, 3), read(reopened, third));
+        assertTrue(reopened.open(third).file().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Удаление по устаревшему поколению не затрагивает повторно сохраненное содержимое")
+    void whenDeleteStaleGeneration_ThenNewContentIsKept() throws IOException {
+        SegmentAvatarStorage storage = openStorage(1 << 20);
+        String location = store(storage, "aaaa", content(100, 1));
+        AvatarStorage.PendingDeletion deletion = storage.prepareDelete(location);
+        deletion.commit();
+        assertThrows(NoSuchFileException.class, () -> storage.open(location));
+
+        String restored = store(storage, "aaaa", content(100, 1));
+        deletion.commit();
+        assertArrayEquals(content(100, 1), read(storage, restored));
+
+        storage.prepareDelete(restored).rollback();
+        storage.close();
+
+        SegmentAvatarStorage reopened = openStorage(1 << 20);
+        assertArrayEquals(content(100, 1), read(reopened, restored));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Компактор переносит живые записи и удаляет сегменты с мусором")
+    void whenCompact_ThenGarbageSegmentsAreRemoved() throws IOException {
+        SegmentAvatarStorage storage = openStorage(600);
+        String kept = store(storage, "aaaa", content(300, 1));
+        String deleted = store(storage, "bbbb", content(300, 2));
+        store(storage, "cccc", content(300, 3));
+        storage.prepareDelete(deleted).commit();
+        store(storage, "dddd", content(300, 4));
+        int segmentsBefore = storage.segmentCount();
+
+        storage.compact();
+
+        assertTrue(storage.segmentCount() < segmentsBefore);
+        assertArrayEquals(content(300, 1), read(storage, kept));
+        assertThrows(NoSuchFileException.class, () -> storage.open(deleted));
+        storage.close();
+
+        SegmentAvatarStorage reopened = openStorage(600);
+        assertArrayEquals(content(300, 1), read(reopened, kept));
+        assertThrows(NoSuchFileException.class, () -> reopened.open(deleted));
+        reopened.close();
+    }
+}